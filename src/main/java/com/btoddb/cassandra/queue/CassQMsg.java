@@ -1,5 +1,6 @@
 package com.btoddb.cassandra.queue;
 
+import java.nio.ByteBuffer;
 import java.util.UUID;
 
 import com.btoddb.cassandra.queue.model.MessageDescriptor;
@@ -16,11 +17,17 @@ public class CassQMsg {
     private PipeDescriptorImpl pipeDesc;
     private UUID msgId;
     private MessageDescriptor msgDesc;
+    private boolean payloadInline;
 
     public CassQMsg(PipeDescriptorImpl pipeDesc, UUID msgId, MessageDescriptor msgDesc) {
+        this(pipeDesc, msgId, msgDesc, false);
+    }
+
+    public CassQMsg(PipeDescriptorImpl pipeDesc, UUID msgId, MessageDescriptor msgDesc, boolean payloadInline) {
         this.pipeDesc = pipeDesc;
         this.msgId = msgId;
         this.msgDesc = msgDesc;
+        this.payloadInline = payloadInline;
     }
 
     public UUID getMsgId() {
@@ -35,6 +42,25 @@ public class CassQMsg {
         return pipeDesc;
     }
 
+    /**
+     * Read the payload without copying it. Large payloads are the buffer
+     * Thrift read them into, so holding on to it keeps that read's memory.
+     * 
+     * @return read-only view of the payload
+     */
+    public ByteBuffer payloadBuffer() {
+        ByteBuffer payload = msgDesc.getPayloadAsByteBuffer();
+        return null != payload ? payload.asReadOnlyBuffer() : null;
+    }
+
+    /**
+     * @return true if the message descriptor is stored in the pipe's column
+     *         value instead of its own row
+     */
+    public boolean isPayloadInline() {
+        return payloadInline;
+    }
+
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
@@ -0,0 +1,311 @@
+package com.btoddb.cassandra.queue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Thread safe way to consume a queue. Owns a set of popper threads, each with
+ * its own {@link PopperImpl}, that hand popped messages to a pool of handler
+ * threads calling the application's {@link MessageHandler}. A message is
+ * committed if the handler returns normally and rolled back if it throws. No
+ * more than maxInFlight messages are popped but not yet committed or rolled
+ * back at any time. Consumers are normally created by calling
+ * {@link CassQueueImpl#createConsumer(MessageHandler)}.
+ * <p/>
+ * Settings must be changed before {@link #start()}.
+ */
+public class CassQueueConsumer {
+    private static Logger logger = LoggerFactory.getLogger(CassQueueConsumer.class);
+
+    public static final int DEFAULT_NUM_POPPERS = 1;
+    public static final int DEFAULT_NUM_HANDLER_THREADS = 10;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 20;
+    public static final int DEFAULT_POP_BATCH_SIZE = 10;
+    public static final long DEFAULT_POP_WAIT_TIMEOUT = 1000; // millis
+
+    private final CassQueueImpl cq;
+    private final MessageHandler handler;
+
+    private int numPoppers = DEFAULT_NUM_POPPERS;
+    private int numHandlerThreads = DEFAULT_NUM_HANDLER_THREADS;
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private int popBatchSize = DEFAULT_POP_BATCH_SIZE;
+    private long popWaitTimeout = DEFAULT_POP_WAIT_TIMEOUT;
+
+    private Semaphore inFlight;
+    private ExecutorService handlerExecutor;
+    private List<Thread> popperThreadList = new ArrayList<Thread>();
+    private List<PopperImpl> popperList = new ArrayList<PopperImpl>();
+    private volatile boolean started = false;
+    private volatile boolean stopProcessing = false;
+
+    private AtomicLong commitCount = new AtomicLong();
+    private AtomicLong rollbackCount = new AtomicLong();
+    private AtomicLong failureCount = new AtomicLong();
+
+    public CassQueueConsumer(CassQueueImpl cq, MessageHandler handler) {
+        this.cq = cq;
+        this.handler = handler;
+    }
+
+    public synchronized void start() {
+        if (started) {
+            throw new IllegalStateException("consumer already started");
+        }
+        started = true;
+
+        inFlight = new Semaphore(maxInFlight);
+
+        final AtomicInteger handlerThreadNum = new AtomicInteger();
+        handlerExecutor = Executors.newFixedThreadPool(numHandlerThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread theThread = new Thread(r);
+                theThread.setName(CassQueueConsumer.class.getSimpleName() + "-" + cq.getName() + "-handler-"
+                        + handlerThreadNum.incrementAndGet());
+                theThread.setDaemon(true);
+                return theThread;
+            }
+        });
+
+        for (int i = 0; i < numPoppers; i++) {
+            final PopperImpl popper = cq.createPopper();
+            popperList.add(popper);
+
+            Thread theThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    popLoop(popper);
+                }
+            });
+            theThread.setName(CassQueueConsumer.class.getSimpleName() + "-" + cq.getName() + "-popper-" + i);
+            theThread.setDaemon(true);
+            popperThreadList.add(theThread);
+            theThread.start();
+        }
+    }
+
+    private void popLoop(PopperImpl popper) {
+        while (!stopProcessing) {
+            try {
+                inFlight.acquire();
+            }
+            catch (InterruptedException e) {
+                Thread.interrupted();
+                continue;
+            }
+
+            List<CassQMsg> msgList;
+            try {
+                msgList = popMsgs(popper);
+            }
+            catch (Throwable e) {
+                logger.error("exception while popping messages from queue : " + cq.getName(), e);
+                inFlight.release();
+                continue;
+            }
+
+            for (CassQMsg qMsg : msgList) {
+                try {
+                    handlerExecutor.execute(new HandlerTask(popper, qMsg));
+                }
+                catch (Throwable e) {
+                    // left in "pending", the reaper rolls it back once the
+                    // transaction times out
+                    logger.error("exception while dispatching message : " + qMsg.getMsgId(), e);
+                    inFlight.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Pop one message, waiting for it if needed, then as many more from the
+     * same pipe as in-flight permits and the batch size allow. Holds one
+     * permit on entry and returns holding exactly one permit per message. If
+     * popping the extra messages fails, the first one is still returned.
+     */
+    private List<CassQMsg> popMsgs(PopperImpl popper) {
+        List<CassQMsg> msgList = new ArrayList<CassQMsg>(popBatchSize);
+        CassQMsg qMsg = popper.pop(popWaitTimeout, TimeUnit.MILLISECONDS);
+        if (null == qMsg) {
+            inFlight.release();
+            return msgList;
+        }
+        msgList.add(qMsg);
+
+        int extra = 0;
+        while (extra < popBatchSize - 1 && inFlight.tryAcquire()) {
+            extra++;
+        }
+        if (0 < extra) {
+            try {
+                List<CassQMsg> moreList = popper.pop(extra);
+                msgList.addAll(moreList);
+                extra -= moreList.size();
+            }
+            catch (Throwable e) {
+                logger.error("exception while popping more messages from queue : " + cq.getName(), e);
+            }
+            finally {
+                inFlight.release(extra);
+            }
+        }
+        return msgList;
+    }
+
+    private class HandlerTask implements Runnable {
+        private final PopperImpl popper;
+        private final CassQMsg qMsg;
+
+        private HandlerTask(PopperImpl popper, CassQMsg qMsg) {
+            this.popper = popper;
+            this.qMsg = qMsg;
+        }
+
+        @Override
+        public void run() {
+            try {
+                try {
+                    handler.handle(qMsg);
+                }
+                catch (Throwable e) {
+                    logger.debug("handler failed, rolling back message : {}", qMsg.getMsgId(), e);
+                    popper.rollback(qMsg);
+                    rollbackCount.incrementAndGet();
+                    return;
+                }
+                popper.commit(qMsg);
+                commitCount.incrementAndGet();
+            }
+            catch (Throwable e) {
+                // most likely the transaction timed out and the reaper will
+                // roll the message back
+                logger.error("exception while finishing message : " + qMsg.getMsgId(), e);
+                failureCount.incrementAndGet();
+            }
+            finally {
+                inFlight.release();
+            }
+        }
+    }
+
+    /**
+     * Stop popping, wait for all popped messages to be handled, then shut
+     * down the poppers.
+     */
+    public synchronized void shutdownAndWait() {
+        if (!started) {
+            return;
+        }
+
+        stopProcessing = true;
+        for (Thread theThread : popperThreadList) {
+            theThread.interrupt();
+        }
+        for (Thread theThread : popperThreadList) {
+            while (theThread.isAlive()) {
+                try {
+                    theThread.join();
+                }
+                catch (InterruptedException e) {
+                    Thread.interrupted();
+                    // do nothing
+                }
+            }
+        }
+
+        handlerExecutor.shutdown();
+        while (!handlerExecutor.isTerminated()) {
+            try {
+                handlerExecutor.awaitTermination(100, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.interrupted();
+                // do nothing
+            }
+        }
+
+        for (PopperImpl popper : popperList) {
+            popper.shutdownAndWait();
+        }
+    }
+
+    /**
+     * Number of messages popped and not yet committed or rolled back.
+     *
+     * @return
+     */
+    public int getNumInFlight() {
+        return null != inFlight ? maxInFlight - inFlight.availablePermits() : 0;
+    }
+
+    public long getCommitCount() {
+        return commitCount.get();
+    }
+
+    public long getRollbackCount() {
+        return rollbackCount.get();
+    }
+
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    public int getNumPoppers() {
+        return numPoppers;
+    }
+
+    public void setNumPoppers(int numPoppers) {
+        this.numPoppers = numPoppers;
+    }
+
+    public int getNumHandlerThreads() {
+        return numHandlerThreads;
+    }
+
+    public void setNumHandlerThreads(int numHandlerThreads) {
+        this.numHandlerThreads = numHandlerThreads;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    public int getPopBatchSize() {
+        return popBatchSize;
+    }
+
+    public void setPopBatchSize(int popBatchSize) {
+        this.popBatchSize = popBatchSize;
+    }
+
+    public long getPopWaitTimeout() {
+        return popWaitTimeout;
+    }
+
+    /**
+     * Max time a popper thread waits for a message before checking for
+     * shutdown.
+     *
+     * @param popWaitTimeout
+     *            millis
+     */
+    public void setPopWaitTimeout(long popWaitTimeout) {
+        this.popWaitTimeout = popWaitTimeout;
+    }
+}
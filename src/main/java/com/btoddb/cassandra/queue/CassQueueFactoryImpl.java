@@ -1,23 +1,44 @@
 package com.btoddb.cassandra.queue;
 
 import com.btoddb.cassandra.queue.locks.Locker;
+import com.btoddb.cassandra.queue.notify.Notifier;
 import com.btoddb.cassandra.queue.repository.QueueRepositoryImpl;
 
 public class CassQueueFactoryImpl {
     private QueueRepositoryImpl qRepos;
     private Locker<QueueDescriptor> queueStatsLocker;
     private Locker<QueueDescriptor> pipeCollectionLocker;
+    private Notifier<QueueDescriptor> notifier;
 
     public CassQueueFactoryImpl(QueueRepositoryImpl qRepos, Locker<QueueDescriptor> queueStatsLocker,
             Locker<QueueDescriptor> pipeCollectionLocker) {
+        this(qRepos, queueStatsLocker, pipeCollectionLocker, null);
+    }
+
+    public CassQueueFactoryImpl(QueueRepositoryImpl qRepos, Locker<QueueDescriptor> queueStatsLocker,
+            Locker<QueueDescriptor> pipeCollectionLocker, Notifier<QueueDescriptor> notifier) {
         this.qRepos = qRepos;
         this.queueStatsLocker = queueStatsLocker;
         this.pipeCollectionLocker = pipeCollectionLocker;
+        this.notifier = notifier;
     }
 
     public CassQueueImpl createInstance(String qName, long maxPushTimeOfPipe, int maxPushesPerPipe, long transactionTimeout, boolean distributed) {
-        QueueDescriptor qDesc = qRepos.createQueueIfDoesntExist(qName, maxPushTimeOfPipe, maxPushesPerPipe, transactionTimeout);
-        CassQueueImpl cq = new CassQueueImpl(qRepos, qDesc, true, queueStatsLocker, pipeCollectionLocker);
+        return createInstance(qName, maxPushTimeOfPipe, maxPushesPerPipe, transactionTimeout, 0, distributed);
+    }
+
+    public CassQueueImpl createInstance(String qName, long maxPushTimeOfPipe, int maxPushesPerPipe,
+            long transactionTimeout, int maxInlinePayloadSize, boolean distributed) {
+        return createInstance(qName, maxPushTimeOfPipe, maxPushesPerPipe, transactionTimeout, maxInlinePayloadSize, 1,
+                distributed);
+    }
+
+    public CassQueueImpl createInstance(String qName, long maxPushTimeOfPipe, int maxPushesPerPipe,
+            long transactionTimeout, int maxInlinePayloadSize, int numPriorities, boolean distributed) {
+        QueueDescriptor qDesc =
+                qRepos.createQueueIfDoesntExist(qName, maxPushTimeOfPipe, maxPushesPerPipe, transactionTimeout,
+                        maxInlinePayloadSize, numPriorities);
+        CassQueueImpl cq = new CassQueueImpl(qRepos, qDesc, true, queueStatsLocker, pipeCollectionLocker, notifier);
         return cq;
     }
 
@@ -28,7 +49,7 @@ public class CassQueueFactoryImpl {
     public CassQueueImpl createInstance(String qName, boolean startReaper) throws Exception {
         QueueDescriptor qDesc = qRepos.getQueueDescriptor(qName);
         if (null != qDesc) {
-            return new CassQueueImpl(qRepos, qDesc, startReaper, queueStatsLocker, pipeCollectionLocker);
+            return new CassQueueImpl(qRepos, qDesc, startReaper, queueStatsLocker, pipeCollectionLocker, notifier);
         }
         else {
             return null;
@@ -1,6 +1,9 @@
 package com.btoddb.cassandra.queue;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicLong;
@@ -11,8 +14,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.btoddb.cassandra.queue.locks.Locker;
+import com.btoddb.cassandra.queue.notify.Notifier;
+import com.btoddb.cassandra.queue.notify.NotifyListener;
 import com.btoddb.cassandra.queue.pipes.PipeManager;
 import com.btoddb.cassandra.queue.repository.QueueRepositoryImpl;
+import com.btoddb.cassandra.queue.utils.BatchFlusher;
 import com.btoddb.cassandra.queue.utils.JmxMBeanManager;
 import com.btoddb.cassandra.queue.utils.RollingStat;
 
@@ -37,6 +43,27 @@ public class CassQueueImpl implements CassQueueMXBean {
 
     public static final long TRANSACTION_GRACE_PERIOD = 2000;
 
+    public static final int DEFAULT_ASYNC_PUSH_MAX_BATCH_SIZE = 500;
+    public static final long DEFAULT_ASYNC_PUSH_MAX_BATCH_WAIT = 5; // millis
+    public static final int DEFAULT_ASYNC_PUSH_MAX_IN_FLIGHT = 10000;
+
+    public static final int DEFAULT_ASYNC_COMMIT_MAX_BATCH_SIZE = 500;
+    public static final long DEFAULT_ASYNC_COMMIT_MAX_BATCH_WAIT = 5; // millis
+    public static final int DEFAULT_ASYNC_COMMIT_MAX_IN_FLIGHT = 10000;
+
+    public static final long DEFAULT_POP_WAIT_MIN_BACKOFF = 10; // millis
+    public static final long DEFAULT_POP_WAIT_MAX_BACKOFF = 1000; // millis
+    public static final long DEFAULT_NOTIFY_MIN_INTERVAL = 100; // millis
+
+    public static final long DEFAULT_ROLLBACK_DELAY = 0; // millis
+    public static final long DEFAULT_MAX_ROLLBACK_DELAY = 60000; // millis
+    public static final long DEFAULT_DELAY_BUCKET_SIZE = 1000; // millis
+
+    public static final int DEFAULT_PRIORITY_STARVATION_RATIO = 10;
+
+    public static final int DEFAULT_PUSH_COUNT_SAVE_MSGS = 100;
+    public static final long DEFAULT_PUSH_COUNT_SAVE_INTERVAL = 1000; // millis
+
     private QueueDescriptor qDesc;
     private QueueRepositoryImpl qRepos;
 
@@ -44,9 +71,11 @@ public class CassQueueImpl implements CassQueueMXBean {
     private Locker<QueueDescriptor> queueStatsLocker;
     private PusherImpl rollbackPusher;
     private long maxPopOwnerIdleTime;
+    private double popOwnerLeaseRenewFraction = PipeManager.DEFAULT_LEASE_RENEW_FRACTION;
 
     private Set<PusherImpl> pusherSet = new HashSet<PusherImpl>();
     private Set<PopperImpl> popperSet = new HashSet<PopperImpl>();
+    private Set<CassQueueConsumer> consumerSet = new HashSet<CassQueueConsumer>();
 
     private RollingStat popNotEmptyStat = new RollingStat(60000);
     private RollingStat popEmptyStat = new RollingStat(60000);
@@ -55,10 +84,50 @@ public class CassQueueImpl implements CassQueueMXBean {
     private PipeReaper pipeReaper;
     
     private AtomicLong rollbackCount = new AtomicLong();
+    private AtomicLong deadLetterCount = new AtomicLong();
+    private CassQueueImpl deadLetterQueue;
+
+    private int asyncPushMaxBatchSize = DEFAULT_ASYNC_PUSH_MAX_BATCH_SIZE;
+    private long asyncPushMaxBatchWait = DEFAULT_ASYNC_PUSH_MAX_BATCH_WAIT;
+    private int asyncPushMaxInFlight = DEFAULT_ASYNC_PUSH_MAX_IN_FLIGHT;
+    private BatchFlusher<byte[], CassQMsg> pushFlusher;
+
+    private int asyncCommitMaxBatchSize = DEFAULT_ASYNC_COMMIT_MAX_BATCH_SIZE;
+    private long asyncCommitMaxBatchWait = DEFAULT_ASYNC_COMMIT_MAX_BATCH_WAIT;
+    private int asyncCommitMaxInFlight = DEFAULT_ASYNC_COMMIT_MAX_IN_FLIGHT;
+    private BatchFlusher<CassQMsg, Boolean> commitFlusher;
+
+    private long popWaitMinBackoff = DEFAULT_POP_WAIT_MIN_BACKOFF;
+    private long popWaitMaxBackoff = DEFAULT_POP_WAIT_MAX_BACKOFF;
+    private volatile EmptyQueueSignal emptyQueueSignal;
+
+    private Notifier<QueueDescriptor> notifier;
+    private NotifyListener<QueueDescriptor> notifyListener;
+    private long notifyMinInterval = DEFAULT_NOTIFY_MIN_INTERVAL;
+    private AtomicLong lastNotifyTimestamp = new AtomicLong();
+
+    private long rollbackDelay = DEFAULT_ROLLBACK_DELAY;
+    private long maxRollbackDelay = DEFAULT_MAX_ROLLBACK_DELAY;
+    private long delayBucketSize = DEFAULT_DELAY_BUCKET_SIZE;
+    private int priorityStarvationRatio = DEFAULT_PRIORITY_STARVATION_RATIO;
+    private int pushCountSaveMsgs = DEFAULT_PUSH_COUNT_SAVE_MSGS;
+    private long pushCountSaveInterval = DEFAULT_PUSH_COUNT_SAVE_INTERVAL;
 
     public CassQueueImpl(QueueRepositoryImpl qRepos, QueueDescriptor qDesc, boolean startReaper,
             Locker<QueueDescriptor> queueStatsLocker, Locker<QueueDescriptor> pipeCollectionLocker) {
+        this(qRepos, qDesc, startReaper, queueStatsLocker, pipeCollectionLocker, null);
+    }
+
+    /**
+     * @param notifier
+     *            used to tell poppers in other JVMs that msgs were pushed, and
+     *            to hear about msgs they pushed. May be null
+     */
+    public CassQueueImpl(QueueRepositoryImpl qRepos, QueueDescriptor qDesc, boolean startReaper,
+            Locker<QueueDescriptor> queueStatsLocker, Locker<QueueDescriptor> pipeCollectionLocker,
+            Notifier<QueueDescriptor> notifier) {
         this.qDesc = qDesc;
+        this.notifier = notifier;
         this.qRepos = qRepos;
         this.queueStatsLocker = queueStatsLocker;
         this.pipeCollectionLocker = pipeCollectionLocker;
@@ -108,14 +177,118 @@ public class CassQueueImpl implements CassQueueMXBean {
         qRepos.removeMsgFromPendingPipe(qMsg);
     }
 
+    /**
+     * Commit a batch of messages with a single mutation. The transaction
+     * timeout is not checked here, see
+     * {@link PopperImpl#commit(java.util.Collection)}.
+     * 
+     * @param msgList
+     */
+    public void commit(Collection<CassQMsg> msgList) {
+        logger.debug("commit {} message(s)", msgList.size());
+        qRepos.removeMsgsFromPendingPipe(msgList);
+    }
+
+    /**
+     * Put a popped message back in "waiting" so it can be popped again. The
+     * message is moved into the rollback pusher's pipe with one mutation,
+     * keeping its msg ID and stored descriptor. If the message has already
+     * been popped {@link #getMaxDeliveries()} times it is moved to the dead
+     * letter queue instead.
+     * <p/>
+     * If {@link #getRollbackDelay()} is set the message is held in a delay
+     * bucket instead, and the {@link PipeReaper} moves it back to "waiting"
+     * once the delay has passed. The delay doubles with each delivery up to
+     * {@link #getMaxRollbackDelay()}.
+     * 
+     * @param qMsg
+     * @return the message as it now exists in "waiting", of this queue or
+     *         the dead letter queue. null if the message is delayed
+     */
     public CassQMsg rollback(CassQMsg qMsg) {
         logger.debug("rollback {}", qMsg);
-        CassQMsg qNewMsg = rollbackPusher.push(qMsg.getMsgDesc().getPayload());
-        qRepos.removeMsgFromPendingPipe(qMsg);
+        if (0 < getMaxDeliveries() && qMsg.getMsgDesc().getDeliveryCount() >= getMaxDeliveries()) {
+            return moveToDeadLetterQueue(qMsg);
+        }
+
+        if (0 < rollbackDelay) {
+            long deliverAt = System.currentTimeMillis() + calculateRollbackDelay(qMsg.getMsgDesc().getDeliveryCount());
+            qRepos.moveMsgFromPendingToDelayed(qMsg, calculateDelayBucket(deliverAt));
+            rollbackCount.incrementAndGet();
+            return null;
+        }
+
+        CassQMsg qNewMsg = rollbackPusher.pushBack(qMsg);
         rollbackCount.incrementAndGet();
         return qNewMsg;
     }
 
+    /**
+     * Delay before a message rolled back after its n'th delivery can be
+     * popped again: rollbackDelay * 2^(n-1), capped at maxRollbackDelay.
+     * 
+     * @param deliveryCount
+     * @return millis
+     */
+    long calculateRollbackDelay(int deliveryCount) {
+        int shift = Math.min(Math.max(deliveryCount - 1, 0), 30);
+        return Math.min(rollbackDelay << shift, maxRollbackDelay);
+    }
+
+    /**
+     * Time the delay bucket holding a message due at deliverAt is promoted.
+     * Buckets are promoted at their end so no message is popped early.
+     * 
+     * @param deliverAt
+     *            millis
+     * @return millis
+     */
+    long calculateDelayBucket(long deliverAt) {
+        return (deliverAt + delayBucketSize - 1) / delayBucketSize * delayBucketSize;
+    }
+
+    /**
+     * Move messages read from a delay bucket back to "waiting". Called by the
+     * {@link PipeReaper}.
+     */
+    List<CassQMsg> pushDelayedMsgs(UUID bucketId, List<CassQMsg> msgList) {
+        return rollbackPusher.pushDelayedMsgs(bucketId, msgList);
+    }
+
+    private CassQMsg moveToDeadLetterQueue(CassQMsg qMsg) {
+        logger.info("message {} delivered {} times, moving to dead letter queue", qMsg.getMsgId(), qMsg
+                .getMsgDesc().getDeliveryCount());
+        // keep the priority if the dead letter queue has the lane, it may
+        // have been created with fewer
+        CassQueueImpl dlq = getDeadLetterQueue();
+        int priority = Math.min(qMsg.getPipeDescriptor().getPriority(), dlq.getNumPriorities() - 1);
+        CassQMsg qNewMsg = dlq.rollbackPusher.pushBack(qMsg, priority);
+        deadLetterCount.incrementAndGet();
+        return qNewMsg;
+    }
+
+    /**
+     * The queue receiving messages that exceeded {@link #getMaxDeliveries()},
+     * named by {@link QueueRepositoryImpl#formatDeadLetterQueueName(String)}.
+     * Created on first use with this queue's settings, including its number of
+     * priorities. This instance is only
+     * used to push, create another instance using {@link CassQueueFactoryImpl}
+     * to consume it.
+     * 
+     * @return
+     */
+    public synchronized CassQueueImpl getDeadLetterQueue() {
+        if (null == deadLetterQueue) {
+            QueueDescriptor dlqDesc =
+                    qRepos.createQueueIfDoesntExist(QueueRepositoryImpl.formatDeadLetterQueueName(getName()),
+                            getMaxPushTimePerPipe(), getMaxPushesPerPipe(), getTransactionTimeout(),
+                            getMaxInlinePayloadSize(), getNumPriorities());
+            // no lockers or reaper, only pushing is done through it
+            deadLetterQueue = new CassQueueImpl(qRepos, dlqDesc, false, null, null, notifier);
+        }
+        return deadLetterQueue;
+    }
+
     public PusherImpl createPusher() {
         logger.debug("creating pusher for queue {}", qDesc.getName());
         PusherImpl pusher = new PusherImpl(this, qRepos, pushStat);
@@ -123,6 +296,115 @@ public class CassQueueImpl implements CassQueueMXBean {
         return pusher;
     }
 
+    /**
+     * The flusher shared by all pushers of this queue for
+     * {@link PusherImpl#pushAsync(byte[])}. Created on first use with its own
+     * pusher, so the async batch settings must be set before then.
+     * 
+     * @return
+     */
+    synchronized BatchFlusher<byte[], CassQMsg> getPushFlusher() {
+        if (null == pushFlusher) {
+            logger.debug("creating async push flusher for queue {}", qDesc.getName());
+            final PusherImpl flushPusher = createPusher();
+            pushFlusher =
+                    new BatchFlusher<byte[], CassQMsg>("PushFlusher-" + qDesc.getName(), asyncPushMaxBatchSize,
+                            asyncPushMaxBatchWait, asyncPushMaxInFlight) {
+                        @Override
+                        protected List<CassQMsg> flushBatch(List<byte[]> msgDataList) {
+                            return flushPusher.pushBatch(msgDataList);
+                        }
+                    };
+            pushFlusher.start();
+        }
+        return pushFlusher;
+    }
+
+    /**
+     * The flusher shared by all poppers of this queue for
+     * {@link PopperImpl#commitAsync(CassQMsg)}. Messages whose transaction has
+     * timed out by the time their batch is flushed are not committed and get
+     * a false result. Created on first use, so the async commit settings must
+     * be set before then.
+     * 
+     * @return
+     */
+    synchronized BatchFlusher<CassQMsg, Boolean> getCommitFlusher() {
+        if (null == commitFlusher) {
+            logger.debug("creating async commit flusher for queue {}", qDesc.getName());
+            commitFlusher =
+                    new BatchFlusher<CassQMsg, Boolean>("CommitFlusher-" + qDesc.getName(), asyncCommitMaxBatchSize,
+                            asyncCommitMaxBatchWait, asyncCommitMaxInFlight) {
+                        @Override
+                        protected List<Boolean> flushBatch(List<CassQMsg> qMsgList) {
+                            List<CassQMsg> commitList = new ArrayList<CassQMsg>(qMsgList.size());
+                            List<Boolean> resultList = new ArrayList<Boolean>(qMsgList.size());
+                            for (CassQMsg qMsg : qMsgList) {
+                                boolean expired = checkTransactionTimeoutExpired(qMsg);
+                                if (!expired) {
+                                    commitList.add(qMsg);
+                                }
+                                resultList.add(!expired);
+                            }
+                            commit(commitList);
+                            return resultList;
+                        }
+                    };
+            commitFlusher.start();
+        }
+        return commitFlusher;
+    }
+
+    /**
+     * The signal shared by all poppers of this queue waiting in
+     * {@link PopperImpl#pop(long, java.util.concurrent.TimeUnit)}. Created,
+     * and its scanner thread started, on first use.
+     * 
+     * @return
+     */
+    synchronized EmptyQueueSignal getEmptyQueueSignal() {
+        if (null == emptyQueueSignal) {
+            logger.debug("creating empty queue signal for queue {}", qDesc.getName());
+            final EmptyQueueSignal signal = new EmptyQueueSignal(this, qRepos);
+            signal.start();
+            if (null != notifier) {
+                notifyListener = new NotifyListener<QueueDescriptor>() {
+                    @Override
+                    public void onNotify(QueueDescriptor object) {
+                        signal.signalNotEmpty();
+                    }
+                };
+                notifier.addListener(qDesc, notifyListener);
+            }
+            emptyQueueSignal = signal;
+        }
+        return emptyQueueSignal;
+    }
+
+    /**
+     * Wake up poppers waiting for msgs, in this JVM directly and in others
+     * through the {@link Notifier}. Notifications are sent for every new pipe,
+     * otherwise at most once per notifyMinInterval since a pusher cannot tell
+     * if a pipe it writes to had been emptied by poppers.
+     * 
+     * @param newPipe
+     *            true if msgs were pushed into a newly created pipe
+     */
+    void signalNotEmpty(boolean newPipe) {
+        EmptyQueueSignal signal = emptyQueueSignal;
+        if (null != signal) {
+            signal.signalNotEmpty();
+        }
+
+        if (null != notifier) {
+            long now = System.currentTimeMillis();
+            long last = lastNotifyTimestamp.get();
+            if ((newPipe || notifyMinInterval <= now - last) && lastNotifyTimestamp.compareAndSet(last, now)) {
+                notifier.publish(qDesc);
+            }
+        }
+    }
+
     /**
      * Preferred way to create a popper. Insures all common properties are used
      * to instantiate the popper.
@@ -134,11 +416,27 @@ public class CassQueueImpl implements CassQueueMXBean {
         UUID popperId = UUID.randomUUID();
         PipeManager pipeMgr = new PipeManager(qRepos, this, popperId, pipeCollectionLocker);
         pipeMgr.setMaxOwnerIdleTime(getMaxPopOwnerIdleTime());
+        pipeMgr.setLeaseRenewFraction(getPopOwnerLeaseRenewFraction());
         PopperImpl popper = new PopperImpl(popperId, this, qRepos, pipeMgr, popNotEmptyStat, popEmptyStat);
         popperSet.add(popper);
         return popper;
     }
 
+    /**
+     * Create a consumer calling the given handler for each message of this
+     * queue. The consumer must be started with {@link CassQueueConsumer#start()}
+     * after changing any of its settings.
+     * 
+     * @param handler
+     * @return
+     */
+    public CassQueueConsumer createConsumer(MessageHandler handler) {
+        logger.debug("creating consumer for queue {}", qDesc.getName());
+        CassQueueConsumer consumer = new CassQueueConsumer(this, handler);
+        consumerSet.add(consumer);
+        return consumer;
+    }
+
     /**
      * Drop the queue making it no longer available to clients. This method will
      * remove the queue data from cassandra and cause all future push/pops to
@@ -185,6 +483,150 @@ public class CassQueueImpl implements CassQueueMXBean {
         qDesc.setMaxPushesPerPipe(maxPushesPerPipe);
     }
 
+    @Override
+    public int getMaxInlinePayloadSize() {
+        return qDesc.getMaxInlinePayloadSize();
+    }
+
+    @Override
+    public void setMaxInlinePayloadSize(int maxInlinePayloadSize) {
+        qDesc.setMaxInlinePayloadSize(maxInlinePayloadSize);
+    }
+
+    @Override
+    public int getMaxDeliveries() {
+        return qDesc.getMaxDeliveries();
+    }
+
+    /**
+     * @param maxDeliveries
+     *            a message rolled back after being popped this many times is
+     *            moved to the dead letter queue. 0 disables
+     */
+    @Override
+    public void setMaxDeliveries(int maxDeliveries) {
+        qDesc.setMaxDeliveries(maxDeliveries);
+    }
+
+    @Override
+    public long getDeadLetterCount() {
+        return deadLetterCount.get();
+    }
+
+    /**
+     * @return number of priority lanes, at least 1
+     */
+    public int getNumPriorities() {
+        return Math.max(1, qDesc.getNumPriorities());
+    }
+
+    /**
+     * @param numPriorities
+     *            msgs can be pushed with a priority from 0 to numPriorities -
+     *            1. Poppers drain higher priorities first
+     * @see #setPriorityStarvationRatio(int)
+     */
+    public void setNumPriorities(int numPriorities) {
+        qDesc.setNumPriorities(numPriorities);
+    }
+
+    /**
+     * @return number of pipes each pusher keeps active per priority, at
+     *         least 1
+     */
+    public int getPushPipesPerPusher() {
+        return Math.max(1, qDesc.getPushPipesPerPusher());
+    }
+
+    /**
+     * @param pushPipesPerPusher
+     *            pushers spread msgs round robin across this many active
+     *            pipes per priority, so up to that many poppers can pop one
+     *            pusher's msgs in parallel. Msgs from one pusher are then no
+     *            longer popped in push order. Only applies to priorities a
+     *            pusher has not pushed to yet
+     */
+    public void setPushPipesPerPusher(int pushPipesPerPusher) {
+        qDesc.setPushPipesPerPusher(pushPipesPerPusher);
+    }
+
+    public int getPriorityStarvationRatio() {
+        return priorityStarvationRatio;
+    }
+
+    /**
+     * @param priorityStarvationRatio
+     *            when picking a pipe, poppers look at the highest priority
+     *            first this many times for each time they look at the lowest
+     *            priority first, so low priority msgs are not starved. 0
+     *            always looks at the highest priority first
+     */
+    public void setPriorityStarvationRatio(int priorityStarvationRatio) {
+        this.priorityStarvationRatio = priorityStarvationRatio;
+    }
+
+    public long getRollbackDelay() {
+        return rollbackDelay;
+    }
+
+    /**
+     * @param rollbackDelay
+     *            millis a message rolled back after its first delivery is held
+     *            before it can be popped again. 0 rolls back immediately
+     */
+    public void setRollbackDelay(long rollbackDelay) {
+        this.rollbackDelay = rollbackDelay;
+    }
+
+    public long getMaxRollbackDelay() {
+        return maxRollbackDelay;
+    }
+
+    public void setMaxRollbackDelay(long maxRollbackDelay) {
+        this.maxRollbackDelay = maxRollbackDelay;
+    }
+
+    public long getDelayBucketSize() {
+        return delayBucketSize;
+    }
+
+    /**
+     * @param delayBucketSize
+     *            millis of due times sharing one delay bucket. Delayed
+     *            messages may be popped up to this much late
+     */
+    public void setDelayBucketSize(long delayBucketSize) {
+        this.delayBucketSize = delayBucketSize;
+    }
+
+    public int getPushCountSaveMsgs() {
+        return pushCountSaveMsgs;
+    }
+
+    /**
+     * @param pushCountSaveMsgs
+     *            pushers save a pipe's push count after at most this many
+     *            msgs. The count is always saved when the pipe is created,
+     *            fills up or is sealed
+     */
+    public void setPushCountSaveMsgs(int pushCountSaveMsgs) {
+        this.pushCountSaveMsgs = pushCountSaveMsgs;
+    }
+
+    public long getPushCountSaveInterval() {
+        return pushCountSaveInterval;
+    }
+
+    /**
+     * @param pushCountSaveInterval
+     *            millis after which the next push to a pipe saves its push
+     *            count, even if fewer than {@link #getPushCountSaveMsgs()}
+     *            msgs were pushed
+     */
+    public void setPushCountSaveInterval(long pushCountSaveInterval) {
+        this.pushCountSaveInterval = pushCountSaveInterval;
+    }
+
     @Override
     public String getName() {
         return qDesc.getName();
@@ -202,6 +644,21 @@ public class CassQueueImpl implements CassQueueMXBean {
      * shared across all clients.
      */
     public void shutdownAndWait() {
+        // drain consumers while poppers and pushers are still usable
+        for (CassQueueConsumer consumer : consumerSet) {
+            consumer.shutdownAndWait();
+        }
+
+        // flush async commits and pushes before the pushers they use go away
+        synchronized (this) {
+            if (null != commitFlusher) {
+                commitFlusher.shutdownAndWait();
+            }
+            if (null != pushFlusher) {
+                pushFlusher.shutdownAndWait();
+            }
+        }
+
         for (PusherImpl pusher : pusherSet) {
             pusher.shutdownAndWait();
         }
@@ -210,6 +667,18 @@ public class CassQueueImpl implements CassQueueMXBean {
             popper.shutdownAndWait();
         }
 
+        synchronized (this) {
+            if (null != deadLetterQueue) {
+                deadLetterQueue.shutdownAndWait();
+            }
+            if (null != emptyQueueSignal) {
+                if (null != notifyListener) {
+                    notifier.removeListener(qDesc, notifyListener);
+                }
+                emptyQueueSignal.shutdownAndWait();
+            }
+        }
+
         if(pipeCollectionLocker != null) {
             pipeCollectionLocker.shutdownAndWait();
         }
@@ -317,6 +786,16 @@ public class CassQueueImpl implements CassQueueMXBean {
         return getPushCountCluster() - getPopCountCluster();
     }
 
+    /**
+     * Average number of calls to Cassandra per popped message, not including
+     * picking a pipe. Counted across all queues sharing the repository.
+     */
+    @Override
+    public double getPopRoundTripsPerMsg() {
+        long popMsgCount = qRepos.getPopMsgCount();
+        return 0 < popMsgCount ? (double) qRepos.getPopRoundTripCount() / popMsgCount : 0;
+    }
+
     public long getMaxPopOwnerIdleTime() {
         return maxPopOwnerIdleTime;
     }
@@ -325,6 +804,22 @@ public class CassQueueImpl implements CassQueueMXBean {
         this.maxPopOwnerIdleTime = maxPopOwnerIdleTime;
     }
 
+    public double getPopOwnerLeaseRenewFraction() {
+        return popOwnerLeaseRenewFraction;
+    }
+
+    /**
+     * Poppers renew their ownership of a pipe once less than this fraction of
+     * {@link #getMaxPopOwnerIdleTime()} remains. Applies to poppers created
+     * after the call.
+     * 
+     * @param popOwnerLeaseRenewFraction
+     *            between 0 (never renew while owned) and 1 (renew on every pop)
+     */
+    public void setPopOwnerLeaseRenewFraction(double popOwnerLeaseRenewFraction) {
+        this.popOwnerLeaseRenewFraction = popOwnerLeaseRenewFraction;
+    }
+
     public long getPopperPickNewPipeSuccess() {
         long count = 0;
         for ( PopperImpl popper : popperSet ) {
@@ -349,6 +844,90 @@ public class CassQueueImpl implements CassQueueMXBean {
         return count;
     }
 
+    public int getAsyncPushMaxBatchSize() {
+        return asyncPushMaxBatchSize;
+    }
+
+    public void setAsyncPushMaxBatchSize(int asyncPushMaxBatchSize) {
+        this.asyncPushMaxBatchSize = asyncPushMaxBatchSize;
+    }
+
+    public long getAsyncPushMaxBatchWait() {
+        return asyncPushMaxBatchWait;
+    }
+
+    public void setAsyncPushMaxBatchWait(long asyncPushMaxBatchWait) {
+        this.asyncPushMaxBatchWait = asyncPushMaxBatchWait;
+    }
+
+    public int getAsyncPushMaxInFlight() {
+        return asyncPushMaxInFlight;
+    }
+
+    public void setAsyncPushMaxInFlight(int asyncPushMaxInFlight) {
+        this.asyncPushMaxInFlight = asyncPushMaxInFlight;
+    }
+
+    public int getAsyncCommitMaxBatchSize() {
+        return asyncCommitMaxBatchSize;
+    }
+
+    public void setAsyncCommitMaxBatchSize(int asyncCommitMaxBatchSize) {
+        this.asyncCommitMaxBatchSize = asyncCommitMaxBatchSize;
+    }
+
+    public long getAsyncCommitMaxBatchWait() {
+        return asyncCommitMaxBatchWait;
+    }
+
+    public void setAsyncCommitMaxBatchWait(long asyncCommitMaxBatchWait) {
+        this.asyncCommitMaxBatchWait = asyncCommitMaxBatchWait;
+    }
+
+    public int getAsyncCommitMaxInFlight() {
+        return asyncCommitMaxInFlight;
+    }
+
+    public void setAsyncCommitMaxInFlight(int asyncCommitMaxInFlight) {
+        this.asyncCommitMaxInFlight = asyncCommitMaxInFlight;
+    }
+
+    public long getPopWaitMinBackoff() {
+        return popWaitMinBackoff;
+    }
+
+    /**
+     * First wait, before jitter, of a popper that found no msgs in
+     * {@link PopperImpl#pop(long, java.util.concurrent.TimeUnit)}. Doubled
+     * each time the popper comes up empty again, up to
+     * {@link #getPopWaitMaxBackoff()}.
+     * 
+     * @param popWaitMinBackoff
+     */
+    public void setPopWaitMinBackoff(long popWaitMinBackoff) {
+        this.popWaitMinBackoff = popWaitMinBackoff;
+    }
+
+    public long getPopWaitMaxBackoff() {
+        return popWaitMaxBackoff;
+    }
+
+    public void setPopWaitMaxBackoff(long popWaitMaxBackoff) {
+        this.popWaitMaxBackoff = popWaitMaxBackoff;
+    }
+
+    public long getNotifyMinInterval() {
+        return notifyMinInterval;
+    }
+
+    public void setNotifyMinInterval(long notifyMinInterval) {
+        this.notifyMinInterval = notifyMinInterval;
+    }
+
+    public Notifier<QueueDescriptor> getNotifier() {
+        return notifier;
+    }
+
     public AtomicLong getRollbackCount() {
         return rollbackCount;
     }
@@ -18,6 +18,16 @@ public interface CassQueueMXBean {
 
     void setMaxPushesPerPipe(int maxPushesPerPipe);
 
+    int getMaxInlinePayloadSize();
+
+    void setMaxInlinePayloadSize(int maxInlinePayloadSize);
+
+    int getMaxDeliveries();
+
+    void setMaxDeliveries(int maxDeliveries);
+
+    long getDeadLetterCount();
+
     long getPopCountLocalNotEmpty();
 
     long getPopCountLocalEmpty();
@@ -38,4 +48,6 @@ public interface CassQueueMXBean {
     
     long getQueueDepth();
 
+    double getPopRoundTripsPerMsg();
+
 }
@@ -0,0 +1,211 @@
+package com.btoddb.cassandra.queue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.btoddb.cassandra.queue.pipes.PipeDescriptorImpl;
+import com.btoddb.cassandra.queue.repository.QueueRepositoryImpl;
+
+/**
+ * Shared by all poppers of a queue in this JVM so idle poppers wait on one
+ * signal instead of each polling Cassandra and the pipe collection lock. A
+ * popper that finds nothing marks the queue as appearing empty and waits.
+ * While anyone is waiting a single scanner thread checks the queue for
+ * waiting msgs, backing off exponentially, and wakes the waiters when it
+ * finds some. Pushes made through this JVM wake the waiters immediately.
+ *
+ * @see PopperImpl#pop(long, java.util.concurrent.TimeUnit)
+ */
+public class EmptyQueueSignal implements Runnable {
+    private static Logger logger = LoggerFactory.getLogger(EmptyQueueSignal.class);
+
+    public static final long DEFAULT_MIN_SCAN_INTERVAL = 50; // millis
+    public static final long DEFAULT_MAX_SCAN_INTERVAL = 2000; // millis
+
+    private static final int MAX_PIPES_TO_SCAN = 10;
+
+    private final CassQueueImpl cq;
+    private final QueueRepositoryImpl qRepos;
+    private final Object monitor = new Object();
+
+    private Thread theThread;
+    private volatile boolean stopProcessing = false;
+    private volatile boolean appearsEmpty = false;
+
+    // guarded by monitor
+    private long signalCount = 0;
+    private int numWaiters = 0;
+    private long scanInterval = DEFAULT_MIN_SCAN_INTERVAL;
+
+    private long minScanInterval = DEFAULT_MIN_SCAN_INTERVAL;
+    private long maxScanInterval = DEFAULT_MAX_SCAN_INTERVAL;
+
+    private AtomicLong scanCount = new AtomicLong();
+
+    public EmptyQueueSignal(CassQueueImpl cq, QueueRepositoryImpl qRepos) {
+        this.cq = cq;
+        this.qRepos = qRepos;
+    }
+
+    public void start() {
+        theThread = new Thread(this);
+        theThread.setName(getClass().getSimpleName() + "-" + cq.getName());
+        theThread.setDaemon(true);
+        theThread.start();
+    }
+
+    /**
+     * Mark the queue as appearing empty and wait until it may have msgs to
+     * pop again, or maxWait ms have passed.
+     *
+     * @param maxWait
+     *            max millis to wait
+     * @return true if woken because msgs may be available, false if timed out
+     * @throws InterruptedException
+     */
+    public boolean awaitNotEmpty(long maxWait) throws InterruptedException {
+        synchronized (monitor) {
+            appearsEmpty = true;
+            long startSignalCount = signalCount;
+            long end = System.currentTimeMillis() + maxWait;
+            numWaiters++;
+
+            // wake up scanner if it is idle
+            monitor.notifyAll();
+            try {
+                long remaining = maxWait;
+                while (signalCount == startSignalCount && 0 < remaining) {
+                    monitor.wait(remaining);
+                    remaining = end - System.currentTimeMillis();
+                }
+                return signalCount != startSignalCount;
+            }
+            finally {
+                numWaiters--;
+            }
+        }
+    }
+
+    /**
+     * Wake up waiting poppers because msgs were pushed. Cheap to call when no
+     * one is waiting.
+     */
+    public void signalNotEmpty() {
+        if (!appearsEmpty) {
+            return;
+        }
+
+        synchronized (monitor) {
+            scanInterval = minScanInterval;
+            wakeWaiters();
+        }
+    }
+
+    private void wakeWaiters() {
+        appearsEmpty = false;
+        signalCount++;
+        monitor.notifyAll();
+    }
+
+    @Override
+    public void run() {
+        while (!stopProcessing) {
+            long delay;
+            try {
+                synchronized (monitor) {
+                    while (!stopProcessing && (0 == numWaiters || !appearsEmpty)) {
+                        monitor.wait();
+                    }
+                }
+                if (stopProcessing) {
+                    break;
+                }
+
+                boolean found = checkForWaitingMsgs();
+                synchronized (monitor) {
+                    if (found && appearsEmpty) {
+                        logger.debug("found waiting msgs, waking up {} popper(s) : {}", numWaiters, cq.getName());
+                        wakeWaiters();
+                    }
+
+                    // only a push resets the interval, otherwise poppers
+                    // that cannot get a pipe would keep the scanner busy
+                    delay = scanInterval;
+                    scanInterval = Math.min(scanInterval * 2, maxScanInterval);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.interrupted();
+                continue;
+            }
+            catch (Throwable e) {
+                logger.error("exception while scanning queue for waiting msgs : " + cq.getName(), e);
+                delay = maxScanInterval;
+            }
+
+            try {
+                Thread.sleep(delay);
+            }
+            catch (InterruptedException e) {
+                Thread.interrupted();
+                // nothing else to do
+            }
+        }
+    }
+
+    private boolean checkForWaitingMsgs() {
+        scanCount.incrementAndGet();
+        for (int priority = cq.getNumPriorities() - 1; 0 <= priority; priority--) {
+            for (PipeDescriptorImpl pipeDesc : qRepos.getOldestPopActivePipes(cq.getName(), MAX_PIPES_TO_SCAN,
+                    priority)) {
+                if (qRepos.hasWaitingMsgs(pipeDesc)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public void shutdownAndWait() {
+        stopProcessing = true;
+        synchronized (monitor) {
+            wakeWaiters();
+        }
+        theThread.interrupt();
+        while (theThread.isAlive()) {
+            try {
+                Thread.sleep(100);
+            }
+            catch (InterruptedException e) {
+                Thread.interrupted();
+                // do nothing
+            }
+        }
+    }
+
+    public boolean isAppearsEmpty() {
+        return appearsEmpty;
+    }
+
+    public long getScanCount() {
+        return scanCount.get();
+    }
+
+    public long getMinScanInterval() {
+        return minScanInterval;
+    }
+
+    public void setMinScanInterval(long minScanInterval) {
+        this.minScanInterval = minScanInterval;
+    }
+
+    public long getMaxScanInterval() {
+        return maxScanInterval;
+    }
+
+    public void setMaxScanInterval(long maxScanInterval) {
+        this.maxScanInterval = maxScanInterval;
+    }
+}
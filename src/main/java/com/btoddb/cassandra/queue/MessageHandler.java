@@ -0,0 +1,21 @@
+package com.btoddb.cassandra.queue;
+
+/**
+ * Application callback invoked by {@link CassQueueConsumer} for each popped
+ * message. Called concurrently from the consumer's handler threads, so
+ * implementations must be thread safe.
+ */
+public interface MessageHandler {
+
+    /**
+     * Process the message. If this method returns normally the message is
+     * committed, if it throws the message is rolled back and will be popped
+     * again later.
+     * 
+     * @param qMsg
+     *            message to process
+     * @throws Exception
+     *             to have the message rolled back
+     */
+    void handle(CassQMsg qMsg) throws Exception;
+}
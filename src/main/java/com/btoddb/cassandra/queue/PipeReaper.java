@@ -1,6 +1,7 @@
 package com.btoddb.cassandra.queue;
 
 import java.util.List;
+import java.util.UUID;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,6 +15,8 @@ import com.btoddb.cassandra.queue.repository.QueueRepositoryImpl;
 public class PipeReaper implements Runnable {
     private static Logger logger = LoggerFactory.getLogger(PipeReaper.class);
 
+    private static final int MAX_DELAYED_MSGS_PER_READ = 1000;
+
     private Thread theThread;
     private volatile boolean stopProcessing = false;
     private Locker<QueueDescriptor> queueStatsLocker;
@@ -22,6 +25,7 @@ public class PipeReaper implements Runnable {
     private CassQueueImpl cq;
     private QueueRepositoryImpl qRepos;
     private long processingDelay = 10000;
+    private boolean pipeStatusIndexesRebuilt = false;
 
     public PipeReaper(CassQueueImpl cq, QueueRepositoryImpl qRepos, Locker<QueueDescriptor> queueStatsLocker) {
         this.cq = cq;
@@ -43,7 +47,9 @@ public class PipeReaper implements Runnable {
                                 queueStatsLockRetryDelay);
                 if (lock != null) {
                     try {
+                        rebuildPipeStatusIndexesIfNeeded();
                         rollbackExpiredPoppedMsgs();
+                        promoteDueDelayedMsgs();
                         rollUpStatsFromPushFinishedPipes();
                         rollUpStatsFromPopFinishedPipes();
                         removeCompletedPipes();
@@ -71,6 +77,17 @@ public class PipeReaper implements Runnable {
         }
     }
 
+    /**
+     * Called once, the first time this thread gets the lock, to index pipes
+     * created before the status index rows were maintained.
+     */
+    void rebuildPipeStatusIndexesIfNeeded() {
+        if (!pipeStatusIndexesRebuilt) {
+            qRepos.rebuildPipeStatusIndexes(cq.getQueueDescriptor().getName());
+            pipeStatusIndexesRebuilt = true;
+        }
+    }
+
     /**
      * Called periodically by this thread to rollback messages that have
      * exceeded the transaction timeout.
@@ -94,6 +111,29 @@ public class PipeReaper implements Runnable {
         }
     }
 
+    /**
+     * Called periodically by this thread to move messages in delay buckets
+     * that are due back to "waiting". A bucket is read with one slice and its
+     * messages moved with one mutation per pipe.
+     */
+    void promoteDueDelayedMsgs() {
+        String qName = cq.getQueueDescriptor().getName();
+        for (UUID bucketId : qRepos.getDueDelayedBuckets(qName, System.currentTimeMillis(), 100)) {
+            List<CassQMsg> msgList;
+            do {
+                msgList = qRepos.getDelayedMsgs(qName, bucketId, MAX_DELAYED_MSGS_PER_READ);
+                if (!msgList.isEmpty()) {
+                    cq.pushDelayedMsgs(bucketId, msgList);
+                }
+            } while (MAX_DELAYED_MSGS_PER_READ <= msgList.size());
+
+            // msgs added while promoting are left for the next pass
+            if (qRepos.removeDelayedBucketIfEmpty(qName, bucketId)) {
+                logger.debug("promoted delay bucket {} : {}", bucketId, qName);
+            }
+        }
+    }
+
     public void wakeUp() {
         theThread.interrupt();
     }
@@ -130,6 +170,7 @@ public class PipeReaper implements Runnable {
 
     private void rollUpPushStatsFromPipe(PipeDescriptorImpl pipeDesc) {
         QueueStats qStats = qRepos.getQueueStats(cq.getQueueDescriptor().getName());
+        // pushers save the final count when sealing the pipe
         qStats.incTotalPushes(pipeDesc.getPushCount());
         // TODO:BTB may want to break this into its on 'insert' call
         qRepos.updateQueueStats(qStats);
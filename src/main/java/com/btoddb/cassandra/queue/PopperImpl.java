@@ -1,6 +1,19 @@
 package com.btoddb.cassandra.queue;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,6 +47,14 @@ public class PopperImpl {
     private volatile boolean working = false;
     private volatile boolean shutdownInProgress = false;
 
+    private int prefetchSize = 0;
+    private ExecutorService prefetchExecutor;
+    private PipeDescriptorImpl prefetchPipe;
+    private Future<List<CassQMsg>> prefetchFuture;
+    private final LinkedList<CassQMsg> prefetchBuffer = new LinkedList<CassQMsg>();
+
+    private final Random random = new Random();
+
     public PopperImpl(UUID popperId, CassQueueImpl cq, QueueRepositoryImpl qRepos, PipeManager pipeMgr,
             RollingStat popNotEmptyStat, RollingStat popEmptyStat) {
         this.popperId = popperId;
@@ -55,8 +76,75 @@ public class PopperImpl {
      *             Runtime exception for unexpected anomalies.
      */
     public CassQMsg pop() throws CassQueueException {
+        List<CassQMsg> msgList = pop(1);
+        return !msgList.isEmpty() ? msgList.get(0) : null;
+    }
+
+    /**
+     * Same as {@link #pop()} but waits up to the given timeout for a message
+     * to arrive. Between attempts the popper backs off exponentially, with
+     * jitter, and waits on the queue's {@link EmptyQueueSignal} so it is woken
+     * early when msgs are pushed by this JVM or found by the signal's scanner.
+     * 
+     * @param timeout
+     * @param unit
+     * @return {@link CassQMsg} instance if message was retrieved, null if the
+     *         timeout elapsed or the thread was interrupted
+     * 
+     * @throws CassQueueException
+     *             Runtime exception for unexpected anomalies.
+     * @see CassQueueImpl#setPopWaitMinBackoff(long)
+     * @see CassQueueImpl#setPopWaitMaxBackoff(long)
+     */
+    public CassQMsg pop(long timeout, TimeUnit unit) throws CassQueueException {
+        long end = System.currentTimeMillis() + unit.toMillis(timeout);
+        long backoff = cq.getPopWaitMinBackoff();
+        for (;;) {
+            CassQMsg qMsg = pop();
+            if (null != qMsg) {
+                return qMsg;
+            }
+
+            long remaining = end - System.currentTimeMillis();
+            if (0 >= remaining || shutdownInProgress) {
+                return null;
+            }
+
+            // wait between half and all of the backoff so poppers in other
+            // JVMs do not retry in lock step
+            long wait = backoff / 2 + (long) (random.nextDouble() * (backoff - backoff / 2));
+            try {
+                cq.getEmptyQueueSignal().awaitNotEmpty(Math.min(remaining, Math.max(1, wait)));
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            backoff = Math.min(backoff * 2, cq.getPopWaitMaxBackoff());
+        }
+    }
+
+    /**
+     * Retrieves up to maxMsgs messages from a single pipe, leaving them in
+     * "pending" state until {@link #commit(CassQMsg)} or
+     * {@link #rollback(CassQMsg)} is called. The messages are read with one
+     * slice (plus one multiget for descriptors not stored inline) and moved to
+     * "pending" with one mutation.
+     * 
+     * @param maxMsgs
+     *            maximum number of messages to return
+     * @return messages in the order they were pushed, empty if none found
+     * 
+     * @throws CassQueueException
+     *             Runtime exception for unexpected anomalies.
+     */
+    public List<CassQMsg> pop(int maxMsgs) throws CassQueueException {
         long start = System.currentTimeMillis();
 
+        if (0 >= maxMsgs) {
+            throw new IllegalArgumentException("maxMsgs must be greater than zero : " + maxMsgs);
+        }
+
         if (shutdownInProgress) {
             throw new IllegalStateException("cannot pop messages when shutdown in progress");
         }
@@ -69,29 +157,33 @@ public class PopperImpl {
                 pd = pipeMgr.pickPipe();
                 if (null == pd) {
                     logger.debug("no pipes available, cannot pop");
-                    return null;
+                    return Collections.emptyList();
                 }
 
                 logger.debug("picked pipe = " + pd.getPipeId());
 
-                CassQMsg qMsg;
+                List<CassQMsg> msgList;
                 try {
-                    qMsg = retrieveOldestMsgFromPipe(pd);
+                    msgList = retrieveOldestMsgsFromPipe(pd, maxMsgs);
                 }
                 catch (Exception e) {
-                    logger.error("exception while getting oldest msg from waiting pipe : {}", pd.getPipeId(), e);
-                    return null;
+                    logger.error("exception while getting oldest msgs from waiting pipe : {}", pd.getPipeId(), e);
+                    return Collections.emptyList();
                 }
 
-                if (null != qMsg) {
-                    popNotEmptyStat.addSample(System.currentTimeMillis() - start);
-                    return qMsg;
+                if (!msgList.isEmpty()) {
+                    // each msg's share of the batch, as for pushStat
+                    long duration = (System.currentTimeMillis() - start) / msgList.size();
+                    for (int i = 0; i < msgList.size(); i++) {
+                        popNotEmptyStat.addSample(duration);
+                    }
+                    return msgList;
                 }
 
                 popEmptyStat.addSample(System.currentTimeMillis() - start);
 
                 if (!pipeMgr.checkMarkPopFinished(pd)) {
-                    return null;
+                    return Collections.emptyList();
                 }
             }
         }
@@ -135,6 +227,48 @@ public class PopperImpl {
         }
     }
 
+    /**
+     * Commit a batch of popped messages with a single mutation. Messages whose
+     * transaction timeout period has elapsed are not committed.
+     * 
+     * @param msgList
+     *            messages to commit, may come from different pipes
+     * @throws CassQueueException
+     *             if any of the messages had timed out, after committing the
+     *             others
+     */
+    public void commit(Collection<CassQMsg> msgList) throws CassQueueException {
+        List<CassQMsg> commitList = new ArrayList<CassQMsg>(msgList.size());
+        for (CassQMsg qMsg : msgList) {
+            if (!cq.checkTransactionTimeoutExpired(qMsg)) {
+                commitList.add(qMsg);
+            }
+        }
+        cq.commit(commitList);
+
+        if (commitList.size() < msgList.size()) {
+            throw new CassQueueException((msgList.size() - commitList.size()) + " of " + msgList.size()
+                    + " message(s) have timed out and rolled back, cannot commit them");
+        }
+    }
+
+    /**
+     * Commit the popped message without waiting for it to be written. Commits
+     * from all poppers of the queue are grouped and written in batches. The
+     * transaction timeout is checked when the batch is written.
+     * 
+     * @param qMsg
+     *            message to commit
+     * @return future completed with true once committed, or false if the
+     *         transaction had timed out and the message was not committed
+     * @see CassQueueImpl#setAsyncCommitMaxBatchSize(int)
+     * @see CassQueueImpl#setAsyncCommitMaxBatchWait(long)
+     * @see CassQueueImpl#setAsyncCommitMaxInFlight(int)
+     */
+    public Future<Boolean> commitAsync(CassQMsg qMsg) {
+        return cq.getCommitFlusher().submit(qMsg);
+    }
+
     /**
      * Rollback the popped message as long as the transaction timeout period has
      * not elapsed.
@@ -154,18 +288,135 @@ public class PopperImpl {
         }
     }
 
-    private CassQMsg retrieveOldestMsgFromPipe(PipeDescriptorImpl pipeDesc) throws Exception {
+    private List<CassQMsg> retrieveOldestMsgsFromPipe(PipeDescriptorImpl pipeDesc, int maxMsgs) throws Exception {
         synchronized(popLock) {
-            CassQMsg qMsg = qRepos.getOldestMsgFromWaitingPipe(pipeDesc);
+            List<CassQMsg> msgList = takePrefetchedMsgs(pipeDesc, maxMsgs);
+            if (msgList.isEmpty()) {
+                msgList = qRepos.getWaitingMessagesFromPipe(pipeDesc, maxMsgs);
+            }
+
+            if (!msgList.isEmpty()) {
+                logger.debug("found {} message(s), moving them to 'pending' pipe : {}", msgList.size(), msgList);
+
+                // renew our lease on the pipe with the same write, but only
+                // when it is running out
+                UUID renewOwnerId = null;
+                long renewTimestamp = 0;
+                if (pipeMgr.checkLeaseRenewalNeeded(pipeDesc)) {
+                    renewOwnerId = popperId;
+                    renewTimestamp = System.currentTimeMillis();
+                    pipeDesc.setPopOwner(renewOwnerId);
+                    pipeDesc.setPopOwnTimestamp(renewTimestamp);
+                }
+                qRepos.moveMsgsFromWaitingToPendingPipe(pipeDesc, msgList, pipeDesc.addPopCount(msgList.size()),
+                        renewOwnerId, renewTimestamp);
+
+                if (0 < prefetchSize) {
+                    startPrefetch(pipeDesc);
+                }
+            }
+            return msgList;
+        }
+    }
+
+    /**
+     * Hand out msgs read ahead from the given pipe, waiting for a read in
+     * progress if there is one. Anything read ahead from another pipe is
+     * dropped, those msgs are still "waiting" and will be popped later.
+     */
+    private List<CassQMsg> takePrefetchedMsgs(PipeDescriptorImpl pipeDesc, int maxMsgs) {
+        if (prefetchPipe != pipeDesc) {
+            discardPrefetchedMsgs();
+            prefetchPipe = pipeDesc;
+            return Collections.emptyList();
+        }
+
+        if (null != prefetchFuture) {
+            try {
+                prefetchBuffer.addAll(prefetchFuture.get());
+            }
+            catch (InterruptedException e) {
+                Thread.interrupted();
+                discardPrefetchedMsgs();
+                return Collections.emptyList();
+            }
+            catch (ExecutionException e) {
+                logger.warn("exception while reading ahead from pipe, reading synchronously : {}",
+                        pipeDesc.getPipeId(), e.getCause());
+            }
+            finally {
+                prefetchFuture = null;
+            }
+        }
+
+        List<CassQMsg> msgList = new ArrayList<CassQMsg>(Math.min(maxMsgs, prefetchBuffer.size()));
+        while (msgList.size() < maxMsgs && !prefetchBuffer.isEmpty()) {
+            msgList.add(prefetchBuffer.removeFirst());
+        }
+        return msgList;
+    }
+
+    /**
+     * Start reading the msgs following the ones already handed out or
+     * buffered, unless a read is already in progress or the buffer is full.
+     */
+    private void startPrefetch(final PipeDescriptorImpl pipeDesc) {
+        final int numMsgs = prefetchSize - prefetchBuffer.size();
+        if (null != prefetchFuture || 0 >= numMsgs) {
+            return;
+        }
 
-            if(qMsg != null) {
-                logger.debug("found message, moving it to 'waiting' pipe : {}", qMsg.toString());
-                // TODO:BTB could combine these two if need to save wire time
-                qRepos.moveMsgFromWaitingToPendingPipe(qMsg);
-                qRepos.updatePipePopCount(pipeDesc, pipeDesc.incPopCount(), qMsg.getMsgDesc());
+        final UUID startAfterMsgId =
+                !prefetchBuffer.isEmpty() ? prefetchBuffer.getLast().getMsgId() : pipeDesc.getWaitingCursor();
+        prefetchFuture = getPrefetchExecutor().submit(new Callable<List<CassQMsg>>() {
+            @Override
+            public List<CassQMsg> call() throws Exception {
+                return qRepos.getWaitingMessagesFromPipeAfter(pipeDesc, startAfterMsgId, numMsgs);
             }
-            return qMsg;
+        });
+    }
+
+    private void discardPrefetchedMsgs() {
+        if (null != prefetchFuture) {
+            prefetchFuture.cancel(false);
+            prefetchFuture = null;
+        }
+        prefetchBuffer.clear();
+        prefetchPipe = null;
+    }
+
+    private ExecutorService getPrefetchExecutor() {
+        if (null == prefetchExecutor) {
+            prefetchExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread theThread = new Thread(r);
+                    theThread.setName(PopperImpl.class.getSimpleName() + "-prefetch-" + popperId);
+                    theThread.setDaemon(true);
+                    return theThread;
+                }
+            });
         }
+        return prefetchExecutor;
+    }
+
+    public int getPrefetchSize() {
+        return prefetchSize;
+    }
+
+    /**
+     * Set how many msgs of the owned pipe to read ahead in the background
+     * while the application processes what it has popped. Prefetched msgs
+     * stay "waiting" in Cassandra until handed out by pop, so semantics are
+     * the same as without read-ahead. 0, the default, disables read-ahead.
+     * 
+     * @param prefetchSize
+     */
+    public void setPrefetchSize(int prefetchSize) {
+        if (0 > prefetchSize) {
+            throw new IllegalArgumentException("prefetchSize must not be negative : " + prefetchSize);
+        }
+        this.prefetchSize = prefetchSize;
     }
 
     /**
@@ -189,6 +440,13 @@ public class PopperImpl {
             }
         }
 
+        synchronized (popLock) {
+            discardPrefetchedMsgs();
+            if (null != prefetchExecutor) {
+                prefetchExecutor.shutdownNow();
+            }
+        }
+
         // free pipe so other clients can use it immediately instead of waiting for timeout
         clearPipeManagerSelection();
     }
@@ -1,6 +1,14 @@
 package com.btoddb.cassandra.queue;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.btoddb.cassandra.queue.utils.UuidGenerator;
@@ -25,15 +33,14 @@ public class PusherImpl {
     private boolean shutdownInProgress = false;
     private CassQueueImpl cq;
     private CassQMsgFactory qMsgFactory = new CassQMsgFactory();
-    private PipeDescriptorImpl pipeDesc = null;
+    // active pipes of each priority
+    private ConcurrentMap<Integer, PipeLane> laneMap = new ConcurrentHashMap<Integer, PipeLane>();
     private boolean working = false;
 
     private AtomicInteger pushCount = new AtomicInteger(0);
 
     private RollingStat pushStat;
 
-    private Object pipeSwitcherMonitor = new Object();
-
     public PusherImpl(CassQueueImpl cq, QueueRepositoryImpl qRepos, RollingStat pushStat) {
         this.cq = cq;
         this.qRepos = qRepos;
@@ -45,73 +52,552 @@ public class PusherImpl {
     }
 
     public CassQMsg push(byte[] msgData) {
+        return push(msgData, 0);
+    }
+
+    public CassQMsg push(String msgData, int priority) {
+        return push(msgData.getBytes(), priority);
+    }
+
+    /**
+     * Push a message with the given priority. Each priority has its own pipes
+     * and poppers drain pipes of higher priority first.
+     * 
+     * @param msgData
+     *            payload to push
+     * @param priority
+     *            from 0, the default, to {@link CassQueueImpl#getNumPriorities()}
+     *            - 1
+     * @return pushed message
+     */
+    public CassQMsg push(byte[] msgData, int priority) {
+        return push(ByteBuffer.wrap(msgData), priority);
+    }
+
+    public CassQMsg push(ByteBuffer msgData) {
+        return push(msgData, 0);
+    }
+
+    /**
+     * Same as {@link #push(byte[], int)} but pushes the remaining bytes of the
+     * buffer. The bytes are handed to Thrift without being copied, unless the
+     * payload is stored inline or the buffer is direct. The buffer's position
+     * is not changed and its content must not change until this returns.
+     * 
+     * @param msgData
+     *            payload to push
+     * @param priority
+     *            see {@link #push(byte[], int)}
+     * @return pushed message
+     */
+    public CassQMsg push(ByteBuffer msgData, int priority) {
         // for shutdown sync'ing
         working = true;
         try {
-            return insertInternal(qMsgFactory.createMsgId(), msgData);
+            return insertInternal(Collections.singletonList(msgData), priority).get(0);
         }
         finally {
             working = false;
         }
     }
 
-    private CassQMsg insertInternal(UUID msgId, byte[] msgData) {
-        long start = System.currentTimeMillis();
+    /**
+     * Push a batch of messages. The messages are written to the current pipe
+     * with a single mutation. If the batch does not fit into the current pipe
+     * it is split across as many pipes as needed, one mutation per pipe.
+     * 
+     * @param msgDataList
+     *            payloads to push
+     * @return pushed messages in the same order as msgDataList
+     */
+    public List<CassQMsg> pushBatch(List<byte[]> msgDataList) {
+        return pushBatch(msgDataList, 0);
+    }
 
+    /**
+     * Same as {@link #pushBatch(List)} but all messages get the given
+     * priority.
+     * 
+     * @param msgDataList
+     *            payloads to push
+     * @param priority
+     *            see {@link #push(byte[], int)}
+     * @return pushed messages in the same order as msgDataList
+     */
+    public List<CassQMsg> pushBatch(List<byte[]> msgDataList, int priority) {
+        List<ByteBuffer> bufList = new ArrayList<ByteBuffer>(msgDataList.size());
+        for (byte[] msgData : msgDataList) {
+            bufList.add(ByteBuffer.wrap(msgData));
+        }
+        return pushByteBufferBatch(bufList, priority);
+    }
+
+    /**
+     * Push a message that cannot be popped before the given time. The message
+     * is written to the queue's delay bucket for that time with one mutation,
+     * and the {@link PipeReaper} moves the whole bucket to a pipe once it is
+     * due. Messages may be popped up to
+     * {@link CassQueueImpl#getDelayBucketSize()} ms plus the reaper's delay
+     * late, never early. A time that has already passed is a normal push.
+     * 
+     * @param msgData
+     *            payload to push
+     * @param deliverAtMillis
+     *            earliest time, in millis, the message can be popped
+     * @return pushed message. It has no pipe until it is due
+     */
+    public CassQMsg pushDelayed(byte[] msgData, long deliverAtMillis) {
+        if (deliverAtMillis <= System.currentTimeMillis()) {
+            return push(msgData);
+        }
+
+        // for shutdown sync'ing
+        working = true;
+        try {
+            if (shutdownInProgress) {
+                throw new IllegalStateException("cannot push messages when shutdown in progress");
+            }
+
+            CassQMsg qMsg =
+                    qRepos.insertDelayedMsg(cq.getName(), qMsgFactory.createMsgId(), msgData,
+                            cq.calculateDelayBucket(deliverAtMillis), cq.getMaxInlinePayloadSize());
+            pushCount.incrementAndGet();
+            logger.debug("pushed delayed message : {}", qMsg);
+            return qMsg;
+        }
+        finally {
+            working = false;
+        }
+    }
+
+    public CassQMsg pushDelayed(String msgData, long deliverAtMillis) {
+        return pushDelayed(msgData.getBytes(), deliverAtMillis);
+    }
+
+    /**
+     * Push a message without waiting for it to be written. The message is
+     * handed to the queue's flusher which groups concurrent async pushes from
+     * all threads into batches and writes each batch with
+     * {@link #pushBatch(List)}. Blocks if too many async pushes are already
+     * waiting to be written.
+     * 
+     * @param msgData
+     *            payload to push
+     * @return future completed with the pushed message once written
+     * @see CassQueueImpl#setAsyncPushMaxBatchSize(int)
+     * @see CassQueueImpl#setAsyncPushMaxBatchWait(long)
+     * @see CassQueueImpl#setAsyncPushMaxInFlight(int)
+     */
+    public Future<CassQMsg> pushAsync(byte[] msgData) {
         if (shutdownInProgress) {
             throw new IllegalStateException("cannot push messages when shutdown in progress");
         }
+        return cq.getPushFlusher().submit(msgData);
+    }
+
+    /**
+     * Same as {@link #pushBatch(List)} but accepts {@link ByteBuffer}
+     * payloads. The remaining bytes of each buffer are pushed, without being
+     * copied, as by {@link #push(ByteBuffer, int)}.
+     * 
+     * @param msgDataList
+     *            payloads to push
+     * @return pushed messages in the same order as msgDataList
+     */
+    public List<CassQMsg> pushByteBufferBatch(List<ByteBuffer> msgDataList) {
+        return pushByteBufferBatch(msgDataList, 0);
+    }
+
+    public List<CassQMsg> pushByteBufferBatch(List<ByteBuffer> msgDataList, int priority) {
+        // for shutdown sync'ing
+        working = true;
+        try {
+            return insertInternal(msgDataList, priority);
+        }
+        finally {
+            working = false;
+        }
+    }
+
+    /**
+     * Put a popped message back in "waiting" by moving it into this pusher's
+     * current pipe of the message's priority. The message keeps its ID and
+     * stored descriptor, so the payload is not pushed again. Used for
+     * rollback.
+     * 
+     * @param qMsg
+     *            message in "pending"
+     * @return the message as it now exists in this pusher's pipe
+     */
+    public CassQMsg pushBack(CassQMsg qMsg) {
+        return pushBack(qMsg, qMsg.getPipeDescriptor().getPriority());
+    }
+
+    /**
+     * Same as {@link #pushBack(CassQMsg)} but into a pipe of the given
+     * priority instead of the message's own. Used to move messages to another
+     * queue.
+     * 
+     * @param qMsg
+     *            message in "pending"
+     * @param priority
+     *            from 0 to {@link CassQueueImpl#getNumPriorities()} - 1 of
+     *            this pusher's queue
+     * @return the message as it now exists in this pusher's pipe
+     */
+    public CassQMsg pushBack(CassQMsg qMsg, int priority) {
+        // for shutdown sync'ing
+        working = true;
+        try {
+            if (shutdownInProgress) {
+                throw new IllegalStateException("cannot push messages when shutdown in progress");
+            }
+            checkPriority(priority);
+
+            PipeReservation res = reservePipe(priority, 1);
+            switchPipesIfNeeded(res);
+            CassQMsg qNewMsg = qRepos.moveMsgFromPendingToWaitingPipe(qMsg, res.pipeDesc, res.savePushCount);
+            pushCount.incrementAndGet();
+            cq.signalNotEmpty(res.newPipe);
+            logger.debug("pushed back message : {}", qNewMsg);
+            return qNewMsg;
+        }
+        finally {
+            working = false;
+        }
+    }
+
+    /**
+     * Move messages read from a delay bucket into this pusher's pipes of the
+     * bucket's priority so they can be popped. The messages keep their IDs
+     * and stored descriptors. One mutation per pipe used.
+     * 
+     * @param bucketId
+     *            bucket the messages were read from
+     * @param msgList
+     *            messages read by
+     *            {@link QueueRepositoryImpl#getDelayedMsgs(String, UUID, int)}
+     * @return the messages as they now exist in "waiting"
+     */
+    public List<CassQMsg> pushDelayedMsgs(UUID bucketId, List<CassQMsg> msgList) {
+        // for shutdown sync'ing
+        working = true;
+        try {
+            if (shutdownInProgress) {
+                throw new IllegalStateException("cannot push messages when shutdown in progress");
+            }
+
+            // the queue may have been given fewer priorities since
+            int priority =
+                    Math.min(QueueRepositoryImpl.getDelayedBucketPriority(bucketId), cq.getNumPriorities() - 1);
+            List<CassQMsg> qMsgList = new ArrayList<CassQMsg>(msgList.size());
+            boolean newPipe = false;
+            int index = 0;
+            while (index < msgList.size()) {
+                PipeReservation res = reservePipe(priority, msgList.size() - index);
+                newPipe |= res.newPipe;
+                switchPipesIfNeeded(res);
+                qMsgList.addAll(qRepos.moveMsgsFromDelayedToWaitingPipe(bucketId,
+                        msgList.subList(index, index + res.numMsgs), res.pipeDesc, res.savePushCount));
+                pushCount.addAndGet(res.numMsgs);
+                index += res.numMsgs;
+            }
+            cq.signalNotEmpty(newPipe);
+            logger.debug("pushed {} delayed message(s) : {}", qMsgList.size(), qMsgList);
+            return qMsgList;
+        }
+        finally {
+            working = false;
+        }
+    }
+
+    /**
+     * Reserve room in one of the active pipes of the priority for as many of
+     * the wanted messages as will fit, switching that slot to a new pipe first
+     * if needed. At least one message is always reserved. Slots are used
+     * round robin and each has its own lock, so threads pushing through the
+     * same pusher rarely wait on each other.
+     * <p/>
+     * Switching pipes does not call Cassandra while holding the lock. The new
+     * pipe is created, the full pipe sealed, and the final push count of an
+     * expired pipe saved, by the reservation's own write, see {@link #awaitPipesCreated(PipeReservation)} and
+     * {@link #finishReservation(PipeReservation, boolean)}.
+     * <p/>
+     * The pipe's push count is only saved by some writes, see
+     * {@link #isPushCountSaveDue(ActivePipe)}.
+     */
+    private PipeReservation reservePipe(int priority, int numWanted) {
+        PipeSlot slot = getLane(priority).nextSlot();
 
         // pusher can be used by multiple threads
-        synchronized (pipeSwitcherMonitor) {
-            if (markPipeFinishedIfNeeded()) {
+        synchronized (slot) {
+            PipeReservation res = new PipeReservation();
+            res.slot = slot;
+            ActivePipe pipe = slot.pipe;
+            if (markPipeFinishedIfNeeded(pipe, res)) {
                 logger.debug("new pipe needed, switching to new one");
-                switchToNewPipe();
+                pipe = new ActivePipe(createNewPipe(priority));
+                slot.pipe = pipe;
+                logger.debug("switched to new pipe : {}", pipe.pipeDesc);
+                res.newPipe = true;
+            }
+
+            PipeDescriptorImpl pipeDesc = pipe.pipeDesc;
+            res.pipe = pipe;
+            res.pipeDesc = pipeDesc;
+            res.numMsgs = Math.min(numWanted, Math.max(1, cq.getMaxPushesPerPipe() - pipeDesc.getPushCount()));
+            pipeDesc.addPushCount(res.numMsgs);
+
+            // a new pipe's count is saved when it is created
+            if (res.newPipe || isPushCountSaveDue(pipe)) {
+                res.savePushCount = !res.newPipe;
+                pipe.savedPushCount = pipeDesc.getPushCount();
+                pipe.saveTimestamp = System.currentTimeMillis();
             }
+            return res;
         }
+    }
 
-        pipeDesc.incPushCount();
-        pushCount.incrementAndGet();
+    /**
+     * Saving the push count with every write rewrites the same column of the
+     * pipe's descriptor thousands of times. It is saved once enough msgs or
+     * time have gone by, and when the pipe fills up, the last push before
+     * sealing it. Sealing saves the final count, and so does switching away
+     * from an expired pipe.
+     */
+    private boolean isPushCountSaveDue(ActivePipe pipe) {
+        int pushCount = pipe.pipeDesc.getPushCount();
+        return pushCount >= cq.getMaxPushesPerPipe()
+                || pushCount - pipe.savedPushCount >= cq.getPushCountSaveMsgs()
+                || System.currentTimeMillis() - pipe.saveTimestamp >= cq.getPushCountSaveInterval();
+    }
 
-        CassQMsg qMsg = qRepos.insertMsg(pipeDesc, msgId, msgData);
-        logger.debug("pushed message : {}", qMsg);
+    private static class PipeReservation {
+        private PipeSlot slot;
+        private ActivePipe pipe;
+        private PipeDescriptorImpl pipeDesc;
+        private int numMsgs;
+        // true if this reservation's write creates the pipe
+        private boolean newPipe;
+        private boolean savePushCount;
+        // full pipe this reservation's write seals, if any
+        private ActivePipe sealPipe;
+        // expired pipe whose final push count this reservation's write saves
+        private ActivePipe expiredPipe;
+        // set by awaitPipesCreated, null if none or never created
+        private PipeDescriptorImpl sealPipeDesc;
+        private PipeDescriptorImpl expiredPipeDesc;
+    }
 
-        pushStat.addSample(System.currentTimeMillis() - start);
-        return qMsg;
+    /**
+     * Wait until the reserved pipe exists in Cassandra, unless this
+     * reservation creates it, and until the pipes to seal or finish saving
+     * exist.
+     */
+    private void awaitPipesCreated(PipeReservation res) {
+        if (!res.newPipe && !awaitCreated(res.pipe)) {
+            throw new CassQueueException("cannot push to pipe, it could not be created : "
+                    + res.pipeDesc.getPipeId());
+        }
+        res.sealPipeDesc = null != res.sealPipe && awaitCreated(res.sealPipe) ? res.sealPipe.pipeDesc : null;
+        res.expiredPipeDesc =
+                null != res.expiredPipe && awaitCreated(res.expiredPipe) ? res.expiredPipe.pipeDesc : null;
     }
 
-    private void switchToNewPipe() {
-        pipeDesc = createNewPipe();
-        logger.debug("switched to new pipe : {}", pipeDesc);
+    private boolean awaitCreated(ActivePipe pipe) {
+        try {
+            pipe.createdLatch.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CassQueueException("interrupted while waiting for pipe to be created : "
+                    + pipe.pipeDesc.getPipeId(), e);
+        }
+        return !pipe.createFailed;
     }
 
-    private PipeDescriptorImpl createNewPipe() {
-        return qRepos.createPipeDescriptor(cq.getName(), UuidGenerator.generateTimeUuid());
+    /**
+     * Release the threads waiting for the pipe if this reservation created it.
+     * If the write failed the pipe does not exist, so the slot drops it and
+     * the next reservation starts a new one. A full pipe that was not sealed
+     * is left for {@link PipeManager} to expire.
+     */
+    private void finishReservation(PipeReservation res, boolean written) {
+        if (!res.newPipe) {
+            return;
+        }
+
+        if (!written) {
+            res.pipe.createFailed = true;
+            synchronized (res.slot) {
+                if (res.slot.pipe == res.pipe) {
+                    res.slot.pipe = null;
+                }
+            }
+        }
+        res.pipe.createdLatch.countDown();
     }
 
     /**
-     * If pipe is full, but not expired then mark it as
+     * Create the reserved pipe and seal the full one, if needed, for writes
+     * that cannot include them, like moving msgs between column families.
+     */
+    private void switchPipesIfNeeded(PipeReservation res) {
+        boolean written = false;
+        try {
+            awaitPipesCreated(res);
+            if (res.newPipe || null != res.sealPipeDesc || null != res.expiredPipeDesc) {
+                qRepos.switchPipes(res.newPipe ? res.pipeDesc : null, res.sealPipeDesc, res.expiredPipeDesc);
+            }
+            written = true;
+        }
+        finally {
+            finishReservation(res, written);
+        }
+    }
+
+    private PipeLane getLane(int priority) {
+        PipeLane lane = laneMap.get(priority);
+        if (null == lane) {
+            laneMap.putIfAbsent(priority, new PipeLane(cq.getPushPipesPerPusher()));
+            lane = laneMap.get(priority);
+        }
+        return lane;
+    }
+
+    /**
+     * The active pipes of one priority. The number of slots is fixed when the
+     * lane is first used.
+     */
+    private static class PipeLane {
+        private final PipeSlot[] slots;
+        private final AtomicInteger nextSlot = new AtomicInteger();
+
+        private PipeLane(int numSlots) {
+            slots = new PipeSlot[numSlots];
+            for (int i = 0; i < numSlots; i++) {
+                slots[i] = new PipeSlot();
+            }
+        }
+
+        private PipeSlot nextSlot() {
+            return slots[(nextSlot.getAndIncrement() & Integer.MAX_VALUE) % slots.length];
+        }
+    }
+
+    /**
+     * Holds one active pipe, guarded by synchronizing on the slot.
+     */
+    private static class PipeSlot {
+        private ActivePipe pipe;
+    }
+
+    /**
+     * A pipe in a slot. It does not exist in Cassandra until the write of the
+     * reservation that switched to it finishes, other writes to it wait on
+     * createdLatch.
+     */
+    private static class ActivePipe {
+        private final PipeDescriptorImpl pipeDesc;
+        private final CountDownLatch createdLatch = new CountDownLatch(1);
+        private volatile boolean createFailed = false;
+
+        // guarded by the slot
+        private int savedPushCount;
+        private long saveTimestamp;
+
+        private ActivePipe(PipeDescriptorImpl pipeDesc) {
+            this.pipeDesc = pipeDesc;
+        }
+    }
+
+    private List<CassQMsg> insertInternal(List<ByteBuffer> msgDataList, int priority) {
+        long start = System.currentTimeMillis();
+
+        if (shutdownInProgress) {
+            throw new IllegalStateException("cannot push messages when shutdown in progress");
+        }
+        checkPriority(priority);
+
+        List<CassQMsg> qMsgList = new ArrayList<CassQMsg>(msgDataList.size());
+        boolean newPipe = false;
+        int index = 0;
+        while (index < msgDataList.size()) {
+            PipeReservation res = reservePipe(priority, msgDataList.size() - index);
+            PipeDescriptorImpl pd = res.pipeDesc;
+            int numMsgs = res.numMsgs;
+            newPipe |= res.newPipe;
+
+            List<UUID> msgIdList = new ArrayList<UUID>(numMsgs);
+            for (int i = 0; i < numMsgs; i++) {
+                msgIdList.add(qMsgFactory.createMsgId());
+            }
+
+            boolean written = false;
+            try {
+                awaitPipesCreated(res);
+                qMsgList.addAll(qRepos.insertMsgs(pd, msgIdList, msgDataList.subList(index, index + numMsgs),
+                        cq.getMaxInlinePayloadSize(), res.newPipe, res.savePushCount, res.sealPipeDesc,
+                        res.expiredPipeDesc));
+                written = true;
+            }
+            finally {
+                finishReservation(res, written);
+            }
+            pushCount.addAndGet(numMsgs);
+            index += numMsgs;
+        }
+        cq.signalNotEmpty(newPipe);
+        logger.debug("pushed {} message(s) : {}", qMsgList.size(), qMsgList);
+
+        // one sample per msg keeps push count and rate right, each is the
+        // batch's share of the time so the average is time per msg
+        if (!qMsgList.isEmpty()) {
+            long duration = (System.currentTimeMillis() - start) / qMsgList.size();
+            for (int i = 0; i < qMsgList.size(); i++) {
+                pushStat.addSample(duration);
+            }
+        }
+        return qMsgList;
+    }
+
+    private void checkPriority(int priority) {
+        if (0 > priority || cq.getNumPriorities() <= priority) {
+            throw new IllegalArgumentException("priority must be from 0 to " + (cq.getNumPriorities() - 1) + " : "
+                    + priority);
+        }
+    }
+
+    private PipeDescriptorImpl createNewPipe(int priority) {
+        return qRepos.newPipeDescriptor(cq.getName(), UuidGenerator.generateTimeUuid(),
+                System.currentTimeMillis(), priority);
+    }
+
+    /**
+     * If pipe is full, but not expired then have the reservation mark it as
      * {@link PipeStatus#NOT_ACTIVE}. If it has expired, {@link PopperImpl} will
-     * handle this case to prevent race condition.
+     * handle this case to prevent race condition, but only the pusher knows
+     * the final push count, so the reservation saves it if the stored count
+     * is behind.
      * 
      * @return true if new pipe needed
      */
-    private boolean markPipeFinishedIfNeeded() {
+    private boolean markPipeFinishedIfNeeded(ActivePipe pipe, PipeReservation res) {
+        PipeDescriptorImpl pipeDesc = null != pipe ? pipe.pipeDesc : null;
         if (null == pipeDesc) {
             logger.debug("new pipe needed, none exists");
             return true;
         }
         else if (System.currentTimeMillis() - pipeDesc.getPushStartTimestamp() > cq.getMaxPushTimePerPipe()) {
             logger.debug("new pipe needed, pipe has exceed expiration of {} ms", cq.getMaxPushTimePerPipe());
+            if (pipe.savedPushCount < pipeDesc.getPushCount()) {
+                res.expiredPipe = pipe;
+            }
             return true;
         }
         else if (pipeDesc.getPushCount() >= cq.getMaxPushesPerPipe()) {
             logger.debug("new pipe needed, msg count exceeds max of {}", cq.getMaxPushesPerPipe());
-
-            // TODO BTB:could combine this with 'insert' to cut down on wire
-            // time if needed
-            qRepos.updatePipePushStatus(pipeDesc, PipeStatus.NOT_ACTIVE);
-
+            res.sealPipe = pipe;
             return true;
         }
         else {
@@ -135,10 +621,16 @@ public class PusherImpl {
             }
         }
 
-        if (null != pipeDesc) {
-            synchronized (pipeSwitcherMonitor) {
-                qRepos.updatePipePushStatus(pipeDesc, PipeStatus.NOT_ACTIVE);
-                pipeDesc = null;
+        for (PipeLane lane : laneMap.values()) {
+            for (PipeSlot slot : lane.slots) {
+                ActivePipe pipe;
+                synchronized (slot) {
+                    pipe = slot.pipe;
+                    slot.pipe = null;
+                }
+                if (null != pipe && awaitCreated(pipe)) {
+                    qRepos.sealPipe(pipe.pipeDesc);
+                }
             }
         }
     }
@@ -156,7 +648,33 @@ public class PusherImpl {
     }
 
     public PipeDescriptorImpl getPipeDesc() {
-        return pipeDesc;
+        return getPipeDesc(0);
+    }
+
+    /**
+     * @return the pipe in the first slot of the priority, null if none
+     */
+    public PipeDescriptorImpl getPipeDesc(int priority) {
+        List<PipeDescriptorImpl> pipeDescList = getPipeDescs(priority);
+        return !pipeDescList.isEmpty() ? pipeDescList.get(0) : null;
+    }
+
+    /**
+     * @return the active pipes of the priority, in slot order
+     */
+    public List<PipeDescriptorImpl> getPipeDescs(int priority) {
+        List<PipeDescriptorImpl> pipeDescList = new ArrayList<PipeDescriptorImpl>();
+        PipeLane lane = laneMap.get(priority);
+        if (null != lane) {
+            for (PipeSlot slot : lane.slots) {
+                synchronized (slot) {
+                    if (null != slot.pipe) {
+                        pipeDescList.add(slot.pipe.pipeDesc);
+                    }
+                }
+            }
+        }
+        return pipeDescList;
     }
 
     public int getPushCount() {
@@ -23,6 +23,18 @@ public class QueueDescriptor implements Descriptor {
     @Column(name = "transactionTimeout")
     private long transactionTimeout;
 
+    @Column(name = "maxInlinePayloadSize")
+    private int maxInlinePayloadSize;
+
+    @Column(name = "maxDeliveries")
+    private int maxDeliveries;
+
+    @Column(name = "numPriorities")
+    private int numPriorities;
+
+    @Column(name = "pushPipesPerPusher")
+    private int pushPipesPerPusher;
+
     public QueueDescriptor() {
     }
     
@@ -63,6 +75,54 @@ public class QueueDescriptor implements Descriptor {
         this.transactionTimeout = transactionTimeout;
     }
 
+    /**
+     * Payloads up to this many bytes are stored in the pipe's column value
+     * instead of a message descriptor row. 0 disables inline payloads.
+     */
+    public int getMaxInlinePayloadSize() {
+        return maxInlinePayloadSize;
+    }
+
+    public void setMaxInlinePayloadSize(int maxInlinePayloadSize) {
+        this.maxInlinePayloadSize = maxInlinePayloadSize;
+    }
+
+    /**
+     * A message rolled back after being popped this many times is moved to
+     * the queue's dead letter queue instead. 0 disables.
+     */
+    public int getMaxDeliveries() {
+        return maxDeliveries;
+    }
+
+    public void setMaxDeliveries(int maxDeliveries) {
+        this.maxDeliveries = maxDeliveries;
+    }
+
+    /**
+     * Number of priority lanes, msgs are pushed with a priority from 0 to
+     * numPriorities - 1. 0 or 1 means the queue has no priorities.
+     */
+    public int getNumPriorities() {
+        return numPriorities;
+    }
+
+    public void setNumPriorities(int numPriorities) {
+        this.numPriorities = numPriorities;
+    }
+
+    /**
+     * Number of pipes each pusher keeps active per priority, so that many
+     * poppers can drain one pusher's msgs in parallel. 0 or 1 means one.
+     */
+    public int getPushPipesPerPusher() {
+        return pushPipesPerPusher;
+    }
+
+    public void setPushPipesPerPusher(int pushPipesPerPusher) {
+        this.pushPipesPerPusher = pushPipesPerPusher;
+    }
+
     public void setName(String name) {
         this.name = name;
     }
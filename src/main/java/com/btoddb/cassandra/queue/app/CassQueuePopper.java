@@ -3,6 +3,7 @@ package com.btoddb.cassandra.queue.app;
 import java.io.FileWriter;
 import java.io.PrintWriter;
 import java.util.Queue;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,7 +29,7 @@ public class CassQueuePopper extends PushPopAbstractBase {
 
     @Override
     protected boolean processMsg() {
-        CassQMsg qMsg = popper.pop();
+        CassQMsg qMsg = popper.pop(1, TimeUnit.SECONDS);
         if (null != qMsg) {
             popper.commit(qMsg);
             logger.debug("commited message : {} = {}", qMsg.getMsgId(), qMsg.getMsgDesc().getPayload());
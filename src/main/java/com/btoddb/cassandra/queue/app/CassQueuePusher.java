@@ -34,15 +34,6 @@ public class CassQueuePusher extends PushPopAbstractBase {
     @Override
     protected boolean processMsg() {
         String msgData = String.format("%s+%03d+%012d", testerId, pusherId, numGen.incrementAndGet());
-        try {
-            // just to make sure timestamps do not cause requests to overwrite
-            // data - cuz last timestamp wins in Cassandra
-            Thread.sleep(1);
-        }
-        catch (InterruptedException e) {
-            Thread.interrupted();
-            // do nothing
-        }
         CassQMsg qMsg = pusher.push(msgData);
         logger.debug("pushed message : {} = {}", qMsg.getMsgId(), new String(qMsg.getMsgDesc().getPayload()));
         fWriter.println(System.currentTimeMillis() + "," + msgData);
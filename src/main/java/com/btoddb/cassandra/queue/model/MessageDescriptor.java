@@ -27,8 +27,17 @@ public class MessageDescriptor {
     @Column(name = "createTimestamp")
     private Long createTimestamp;
     
-    @Column(name = "payload")
-    private byte[] payload;
+    // not named payload so the entity mapper does not use getPayload(),
+    // which would copy a payload held as a buffer
+    @Column(name = QueueRepositoryImpl.MDESC_COLNAME_PAYLOAD)
+    private byte[] payloadArray;
+
+    // payload that is not a whole array, written and read by the repository
+    // directly instead of through the entity mapper
+    private transient ByteBuffer payloadBuffer;
+
+    @Column(name = QueueRepositoryImpl.MDESC_COLNAME_DELIVERY_COUNT)
+    private int deliveryCount;
 
     
     public UUID getMsgId() {
@@ -55,22 +64,102 @@ public class MessageDescriptor {
         this.commitTimestamp = commitTimestamp;
     }
 
+    /**
+     * Copies the payload into an array the first time if it is held as a
+     * {@link ByteBuffer}, use {@link #getPayloadAsByteBuffer()} to avoid it.
+     */
     public byte[] getPayload() {
-        return payload;
+        if (null == payloadArray && null != payloadBuffer) {
+            byte[] data = new byte[payloadBuffer.remaining()];
+            payloadBuffer.duplicate().get(data);
+            payloadArray = data;
+            payloadBuffer = null;
+        }
+        return payloadArray;
     }
-    
+
+    /**
+     * Used by the entity mapper.
+     * 
+     * @return the payload if it is held as an array, otherwise null
+     */
+    public byte[] getPayloadArray() {
+        return payloadArray;
+    }
+
+    public void setPayloadArray(byte[] payloadArray) {
+        setPayload(payloadArray);
+    }
+
+    /**
+     * @return the payload without copying it. The returned buffer can be
+     *         read without affecting this descriptor
+     */
     public ByteBuffer getPayloadAsByteBuffer() {
-        return ByteBuffer.wrap(payload);
+        if (null != payloadBuffer) {
+            return payloadBuffer.duplicate();
+        }
+        return null != payloadArray ? ByteBuffer.wrap(payloadArray) : null;
+    }
+
+    /**
+     * @return payload that must be written separately from the mapped
+     *         columns, null if the payload is an array
+     */
+    public ByteBuffer getPayloadBuffer() {
+        return payloadBuffer;
+    }
+
+    public int getPayloadSize() {
+        if (null != payloadBuffer) {
+            return payloadBuffer.remaining();
+        }
+        return null != payloadArray ? payloadArray.length : 0;
     }
 
     public void setPayload(byte[] payload) {
-        this.payload = payload;
+        this.payloadArray = payload;
+        this.payloadBuffer = null;
+    }
+
+    /**
+     * Set the payload to the remaining bytes of the buffer without copying
+     * them, unless the buffer is direct. Thrift can only write heap buffers.
+     * The buffer's position is not changed and later changes to its content
+     * show in the payload. Not an overload of
+     * {@link #setPayload(byte[])} so the entity mapper only sees one setter.
+     */
+    public void setPayloadBuffer(ByteBuffer payload) {
+        if (!payload.hasArray()) {
+            byte[] data = new byte[payload.remaining()];
+            payload.duplicate().get(data);
+            setPayload(data);
+        }
+        else if (0 == payload.arrayOffset() && 0 == payload.position()
+                && payload.array().length == payload.limit()) {
+            setPayload(payload.array());
+        }
+        else {
+            this.payloadArray = null;
+            this.payloadBuffer = payload.slice();
+        }
     }
 
     public void setCreateTimestamp(long createTimestamp) {
         this.createTimestamp = createTimestamp;
     }
 
+    /**
+     * Number of times the message has been popped.
+     */
+    public int getDeliveryCount() {
+        return deliveryCount;
+    }
+
+    public void setDeliveryCount(int deliveryCount) {
+        this.deliveryCount = deliveryCount;
+    }
+
     public Long getCreateTimestamp() {
         return createTimestamp;
     }
@@ -104,7 +193,10 @@ public class MessageDescriptor {
     @Override
     public String toString() {
         return "MessageDescriptor [commitTimestamp=" + commitTimestamp + ", createTimestamp=" + createTimestamp
-                + ", msgId=" + msgId + ", payload=" + Arrays.toString(payload) + ", popTimestamp=" + popTimestamp + "]";
+                + ", msgId=" + msgId + ", payload="
+                + (null != payloadBuffer ? payloadBuffer : Arrays.toString(payloadArray))
+                + ", popTimestamp=" + popTimestamp
+                + ", deliveryCount=" + deliveryCount + "]";
     }
 
     public void setPopTimestamp(Long popTimestamp) {
@@ -0,0 +1,77 @@
+package com.btoddb.cassandra.queue.notify;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.btoddb.cassandra.queue.Descriptor;
+
+/**
+ * Delivers notifications to listeners in this JVM only, on the publishing
+ * thread. Listeners are keyed by the object's ID.
+ *
+ */
+public class LocalNotifierImpl<I extends Descriptor> implements Notifier<I> {
+    private static Logger logger = LoggerFactory.getLogger(LocalNotifierImpl.class);
+
+    final private ConcurrentMap<Object, List<NotifyListener<I>>> listenerMap =
+            new ConcurrentHashMap<Object, List<NotifyListener<I>>>();
+
+    private AtomicInteger publishCount = new AtomicInteger(0);
+    private AtomicInteger deliverCount = new AtomicInteger(0);
+
+    @Override
+    public void publish(I object) {
+        publishCount.incrementAndGet();
+        List<NotifyListener<I>> listenerList = listenerMap.get(object.getId());
+        if (null == listenerList) {
+            return;
+        }
+
+        for (NotifyListener<I> listener : listenerList) {
+            try {
+                listener.onNotify(object);
+                deliverCount.incrementAndGet();
+            }
+            catch (Throwable e) {
+                logger.error("exception while notifying listener for object " + object.getId(), e);
+            }
+        }
+    }
+
+    @Override
+    public void addListener(I object, NotifyListener<I> listener) {
+        List<NotifyListener<I>> listenerList = listenerMap.get(object.getId());
+        if (null == listenerList) {
+            listenerMap.putIfAbsent(object.getId(), new CopyOnWriteArrayList<NotifyListener<I>>());
+            listenerList = listenerMap.get(object.getId());
+        }
+        listenerList.add(listener);
+    }
+
+    @Override
+    public void removeListener(I object, NotifyListener<I> listener) {
+        List<NotifyListener<I>> listenerList = listenerMap.get(object.getId());
+        if (null != listenerList) {
+            listenerList.remove(listener);
+        }
+    }
+
+    public void shutdownAndWait() {
+        // do nothing
+    }
+
+    public int getPublishCount() {
+        return publishCount.get();
+    }
+
+    public int getDeliverCount() {
+        return deliverCount.get();
+    }
+
+}
@@ -0,0 +1,29 @@
+package com.btoddb.cassandra.queue.notify;
+
+/**
+ * Manager interface for telling interested parties, possibly in other JVMs,
+ * that something happened to a particular object (or what it represents). For
+ * queues this is used to wake up idle poppers when msgs are pushed, so they
+ * do not have to poll Cassandra.
+ *
+ * Notifications are hints. They may be dropped or delivered more than once,
+ * listeners must not depend on them for correctness.
+ *
+ * The shutdownAndWait method is exposed to allow stateful notification
+ * mechanisms to clean up on shutdown.
+ *
+ */
+public interface Notifier<I> {
+
+    void publish(I object);
+
+    void addListener(I object, NotifyListener<I> listener);
+
+    void removeListener(I object, NotifyListener<I> listener);
+
+    void shutdownAndWait();
+
+    int getPublishCount();
+
+    int getDeliverCount();
+}
@@ -0,0 +1,11 @@
+package com.btoddb.cassandra.queue.notify;
+
+/**
+ * Callback registered with a {@link Notifier}. Called on the notifier's
+ * thread, so implementations should return quickly.
+ *
+ */
+public interface NotifyListener<I> {
+
+    void onNotify(I object);
+}
@@ -0,0 +1,225 @@
+package com.btoddb.cassandra.queue.notify;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.common.PathUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.btoddb.cassandra.queue.Descriptor;
+import com.btoddb.cassandra.queue.zookeeper.ZooKeeperConnectionManager;
+import com.btoddb.cassandra.queue.zookeeper.ZooKeeperException;
+
+/**
+ * Adapts ZooKeeper watches to provide notifications. Each object has a
+ * persistent node under the notify path; publishing writes to the node and
+ * listeners are called from a watch on it. Watches are one-shot in ZooKeeper,
+ * so they are set again after every event, and periodically in case the
+ * session expired and took them with it.
+ *
+ */
+public class ZooKeeperNotifierImpl<I extends Descriptor> implements Notifier<I>, Runnable {
+
+    private static Logger logger = LoggerFactory.getLogger(ZooKeeperNotifierImpl.class);
+
+    private static final byte[] EMPTY_DATA = new byte[0];
+
+    private String notifyPath;
+    private ZooKeeperConnectionManager zookeeperManager;
+    private long rewatchInterval;
+
+    private final ConcurrentMap<Object, ObjectWatcher> watcherMap = new ConcurrentHashMap<Object, ObjectWatcher>();
+
+    private Thread theThread;
+    private volatile boolean stopProcessing = false;
+
+    private AtomicInteger publishCount = new AtomicInteger(0);
+    private AtomicInteger deliverCount = new AtomicInteger(0);
+
+    public ZooKeeperNotifierImpl(String notifyPath, String connectString, Integer sessionTimeout)
+            throws IOException {
+        this.notifyPath = notifyPath;
+        this.rewatchInterval = sessionTimeout;
+        PathUtils.validatePath(notifyPath);
+
+        zookeeperManager = new ZooKeeperConnectionManager(connectString, sessionTimeout, sessionTimeout / 2);
+        zookeeperManager.start();
+
+        theThread = new Thread(this);
+        theThread.setName(getClass().getSimpleName());
+        theThread.setDaemon(true);
+        theThread.start();
+    }
+
+    private String createResourcePath(Object id) {
+        return notifyPath + "/" + id.toString();
+    }
+
+    @Override
+    public void publish(I object) {
+        String resourcePath = createResourcePath(object.getId());
+        try {
+            try {
+                zookeeperManager.getZookeeperSession().setData(resourcePath, EMPTY_DATA, -1);
+            }
+            catch (KeeperException e) {
+                if (KeeperException.Code.NONODE != e.code()) {
+                    throw e;
+                }
+                createPath(resourcePath);
+            }
+            publishCount.incrementAndGet();
+            logger.debug("published notification for object {}", object.getId());
+        }
+        catch (ZooKeeperException e) {
+            logger.warn("Notification publish for id {} failed: {}", object.getId(), e.getMessage());
+        }
+        catch (KeeperException ke) {
+            logger.error(String.format("Notification publish for id %s failed with error code %s and exception %s",
+                    object.getId(), ke.code(), ke.getMessage()), ke);
+        }
+        catch (InterruptedException e) {
+            logger.warn("Interrupted trying to publish notification for object {}", object.getId());
+            // clear thread interrupt flag
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * Create the node and any missing parents. Creating the node fires the
+     * watches set on it.
+     */
+    private void createPath(String path) throws InterruptedException, ZooKeeperException, KeeperException {
+        String[] pathNodes = path.split("/");
+        StringBuilder currNodePath = new StringBuilder();
+        for (int i = 1; i < pathNodes.length; i++) { // i=1 to skip split()'s empty node
+            currNodePath.append("/");
+            currNodePath.append(pathNodes[i]);
+            try {
+                zookeeperManager.getZookeeperSession().create(currNodePath.toString(), EMPTY_DATA,
+                        ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            }
+            catch (KeeperException e) {
+                if (KeeperException.Code.NODEEXISTS != e.code()) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void addListener(I object, NotifyListener<I> listener) {
+        ObjectWatcher watcher = watcherMap.get(object.getId());
+        if (null == watcher) {
+            watcherMap.putIfAbsent(object.getId(), new ObjectWatcher(object));
+            watcher = watcherMap.get(object.getId());
+        }
+        watcher.listenerList.add(listener);
+        watcher.watch();
+    }
+
+    @Override
+    public void removeListener(I object, NotifyListener<I> listener) {
+        ObjectWatcher watcher = watcherMap.get(object.getId());
+        if (null != watcher) {
+            watcher.listenerList.remove(listener);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!stopProcessing) {
+            try {
+                Thread.sleep(rewatchInterval);
+            }
+            catch (InterruptedException e) {
+                Thread.interrupted();
+                continue;
+            }
+
+            for (ObjectWatcher watcher : watcherMap.values()) {
+                watcher.watch();
+            }
+        }
+    }
+
+    @Override
+    public void shutdownAndWait() {
+        stopProcessing = true;
+        theThread.interrupt();
+        zookeeperManager.shutdown();
+    }
+
+    public int getPublishCount() {
+        return publishCount.get();
+    }
+
+    public int getDeliverCount() {
+        return deliverCount.get();
+    }
+
+    /**
+     * One watcher per object, ZooKeeper only keeps one registration of the
+     * same watcher per node no matter how often it is set.
+     */
+    private class ObjectWatcher implements Watcher {
+        private final I object;
+        private final String resourcePath;
+        private final List<NotifyListener<I>> listenerList = new CopyOnWriteArrayList<NotifyListener<I>>();
+
+        private ObjectWatcher(I object) {
+            this.object = object;
+            this.resourcePath = createResourcePath(object.getId());
+        }
+
+        private void watch() {
+            if (listenerList.isEmpty()) {
+                return;
+            }
+
+            try {
+                zookeeperManager.getZookeeperSession().exists(resourcePath, this);
+            }
+            catch (ZooKeeperException e) {
+                logger.debug("Notification watch for id {} not set: {}", object.getId(), e.getMessage());
+            }
+            catch (KeeperException ke) {
+                logger.warn("Notification watch for id {} failed with error code {}", object.getId(), ke.code());
+            }
+            catch (InterruptedException e) {
+                // clear thread interrupt flag
+                Thread.interrupted();
+            }
+        }
+
+        @Override
+        public void process(WatchedEvent event) {
+            if (Event.EventType.None == event.getType()) {
+                return;
+            }
+
+            // watches fire once, set it again before telling the listeners
+            watch();
+            for (NotifyListener<I> listener : listenerList) {
+                try {
+                    listener.onNotify(object);
+                    deliverCount.incrementAndGet();
+                }
+                catch (Throwable e) {
+                    logger.error("exception while notifying listener for object " + object.getId(), e);
+                }
+            }
+        }
+    }
+
+}
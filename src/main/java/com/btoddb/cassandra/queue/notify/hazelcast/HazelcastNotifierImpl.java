@@ -0,0 +1,121 @@
+package com.btoddb.cassandra.queue.notify.hazelcast;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.btoddb.cassandra.queue.Descriptor;
+import com.btoddb.cassandra.queue.notify.Notifier;
+import com.btoddb.cassandra.queue.notify.NotifyListener;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.ITopic;
+import com.hazelcast.core.Message;
+import com.hazelcast.core.MessageListener;
+
+/**
+ * Delivers notifications across the Hazelcast cluster using one topic per
+ * object.
+ *
+ */
+public class HazelcastNotifierImpl<I extends Descriptor> implements Notifier<I> {
+    private static Logger logger = LoggerFactory.getLogger(HazelcastNotifierImpl.class);
+
+    // topic name -> listener -> its topic listener, one listener can be
+    // registered for several objects
+    private final ConcurrentMap<String, Map<NotifyListener<I>, MessageListener<String>>> topicListenerMap =
+            new ConcurrentHashMap<String, Map<NotifyListener<I>, MessageListener<String>>>();
+
+    private AtomicInteger publishCount = new AtomicInteger();
+    private AtomicInteger deliverCount = new AtomicInteger();
+    private String domain;
+
+    public HazelcastNotifierImpl(String domain) {
+        this.domain = domain;
+    }
+
+    @Override
+    public void publish(I obj) {
+        try {
+            getTopic(obj).publish(obj.getId().toString());
+            publishCount.incrementAndGet();
+        }
+        catch (Throwable e) {
+            logger.error("exception while publishing notification for " + createTopicName(obj.getId()), e);
+        }
+    }
+
+    @Override
+    public void addListener(final I obj, final NotifyListener<I> listener) {
+        MessageListener<String> topicListener = new MessageListener<String>() {
+            @Override
+            public void onMessage(Message<String> message) {
+                deliverCount.incrementAndGet();
+                listener.onNotify(obj);
+            }
+        };
+        String topicName = createTopicName(obj.getId());
+        Map<NotifyListener<I>, MessageListener<String>> listenerMap = topicListenerMap.get(topicName);
+        if (null == listenerMap) {
+            listenerMap = new ConcurrentHashMap<NotifyListener<I>, MessageListener<String>>();
+            Map<NotifyListener<I>, MessageListener<String>> existingMap =
+                    topicListenerMap.putIfAbsent(topicName, listenerMap);
+            if (null != existingMap) {
+                listenerMap = existingMap;
+            }
+        }
+
+        ITopic<String> topic = getTopic(obj);
+        MessageListener<String> oldTopicListener = listenerMap.put(listener, topicListener);
+        if (null != oldTopicListener) {
+            topic.removeMessageListener(oldTopicListener);
+        }
+        topic.addMessageListener(topicListener);
+    }
+
+    @Override
+    public void removeListener(I obj, NotifyListener<I> listener) {
+        Map<NotifyListener<I>, MessageListener<String>> listenerMap =
+                topicListenerMap.get(createTopicName(obj.getId()));
+        if (null == listenerMap) {
+            return;
+        }
+        MessageListener<String> topicListener = listenerMap.remove(listener);
+        if (null != topicListener) {
+            getTopic(obj).removeMessageListener(topicListener);
+        }
+    }
+
+    private ITopic<String> getTopic(I obj) {
+        return Hazelcast.getTopic(createTopicName(obj.getId()));
+    }
+
+    /**
+     * Hazelcast requires that the topic name be the same across the cluster.
+     * So to be safe, use strings.
+     * 
+     * @param obj
+     * @return
+     */
+    private String createTopicName(Object obj) {
+        return domain + "/" + obj.toString();
+    }
+
+    @Override
+    public void shutdownAndWait() {
+    }
+
+    @Override
+    public int getPublishCount() {
+        return publishCount.get();
+    }
+
+    @Override
+    public int getDeliverCount() {
+        return deliverCount.get();
+    }
+
+}
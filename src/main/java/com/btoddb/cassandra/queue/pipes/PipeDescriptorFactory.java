@@ -41,6 +41,8 @@ public class PipeDescriptorFactory {
                 pipeDesc.getPopCount()), StringSerializer.get(), BytesArraySerializer.get()));
         colSet.add(HFactory.createColumn(QueueRepositoryImpl.PDESC_COLNAME_PUSH_START_TIMESTAMP, LongSerializer.get()
                 .toBytes(pipeDesc.getPushStartTimestamp()), StringSerializer.get(), BytesArraySerializer.get()));
+        colSet.add(HFactory.createColumn(QueueRepositoryImpl.PDESC_COLNAME_PRIORITY, IntegerSerializer.get().toBytes(
+                pipeDesc.getPriority()), StringSerializer.get(), BytesArraySerializer.get()));
 
         if (null != pipeDesc.getPopOwner()) {
             colSet.add(HFactory.createColumn(QueueRepositoryImpl.PDESC_COLNAME_POP_OWNER_ID, UUIDSerializer.get()
@@ -69,10 +71,12 @@ public class PipeDescriptorFactory {
         PipeDescriptorImpl pipeDesc =
                 new PipeDescriptorImpl(StringSerializer.get().fromBytes(
                         colSlice.getColumnByName(QueueRepositoryImpl.PDESC_COLNAME_QUEUE_NAME).getValue()), pipeId);
-        pipeDesc.setPushStatus(PipeStatus.getInstance(StringSerializer.get().fromBytes(
-                colSlice.getColumnByName(QueueRepositoryImpl.PDESC_COLNAME_PUSH_STATUS).getValue())));
-        pipeDesc.setPopStatus(PipeStatus.getInstance(StringSerializer.get().fromBytes(
-                colSlice.getColumnByName(QueueRepositoryImpl.PDESC_COLNAME_POP_STATUS).getValue())));
+        HColumn<String, byte[]> pushStatusCol = colSlice.getColumnByName(QueueRepositoryImpl.PDESC_COLNAME_PUSH_STATUS);
+        pipeDesc.setPushStatus(PipeStatus.getInstance(StringSerializer.get().fromBytes(pushStatusCol.getValue())));
+        pipeDesc.setPushStatusTimestamp(pushStatusCol.getClock());
+        HColumn<String, byte[]> popStatusCol = colSlice.getColumnByName(QueueRepositoryImpl.PDESC_COLNAME_POP_STATUS);
+        pipeDesc.setPopStatus(PipeStatus.getInstance(StringSerializer.get().fromBytes(popStatusCol.getValue())));
+        pipeDesc.setPopStatusTimestamp(popStatusCol.getClock());
 
         pipeDesc.setPushCount(IntegerSerializer.get().fromBytes(
                 colSlice.getColumnByName(QueueRepositoryImpl.PDESC_COLNAME_PUSH_COUNT).getValue()));
@@ -90,6 +94,12 @@ public class PipeDescriptorFactory {
         if (null != col) {
             pipeDesc.setPopOwnTimestamp(LongSerializer.get().fromBytes(col.getValue()));
         }
+
+        // pipes created before priorities existed have none
+        col = colSlice.getColumnByName(QueueRepositoryImpl.PDESC_COLNAME_PRIORITY);
+        if (null != col) {
+            pipeDesc.setPriority(IntegerSerializer.get().fromBytes(col.getValue()));
+        }
         
         return pipeDesc;
     }
@@ -9,12 +9,17 @@ public class PipeDescriptorImpl implements Descriptor {
     private String qName;
     private UUID pipeId;
     private AtomicInteger pushCount = new AtomicInteger(0);
+    private int savedPushCount;
     private int popCount;
     private PipeStatus pushStatus;
     private PipeStatus popStatus;
+    private long pushStatusTimestamp;
+    private long popStatusTimestamp;
     private UUID popOwner;
     private long pushStartTimestamp;
     private Long popOwnTimestamp;
+    private UUID waitingCursor;
+    private int priority;
 
     public PipeDescriptorImpl(String qName, UUID pipeId, PipeStatus pushStatus, PipeStatus popStatus) {
         this(qName, pipeId);
@@ -48,14 +53,52 @@ public class PipeDescriptorImpl implements Descriptor {
         return pushCount.incrementAndGet();
     }
 
+    public int addPushCount(int delta) {
+        return pushCount.addAndGet(delta);
+    }
+
     public int incPopCount() {
         return ++popCount;
     }
 
+    public int addPopCount(int delta) {
+        popCount += delta;
+        return popCount;
+    }
+
     public int getPushCount() {
         return pushCount.get();
     }
 
+    /**
+     * ID of the last msg moved out of this pipe's "waiting" row by this
+     * client. Not persisted, a freshly loaded descriptor starts from the head
+     * of the row.
+     * 
+     * @return
+     */
+    public UUID getWaitingCursor() {
+        return waitingCursor;
+    }
+
+    public void setWaitingCursor(UUID waitingCursor) {
+        this.waitingCursor = waitingCursor;
+    }
+
+    /**
+     * Priority of the msgs pushed to this pipe, higher is popped first. 0 is
+     * the lowest and the default.
+     * 
+     * @return
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
     public long getPushStartTimestamp() {
         return pushStartTimestamp;
     }
@@ -94,6 +137,20 @@ public class PipeDescriptorImpl implements Descriptor {
         this.pushCount.set(msgCount);
     }
 
+    /**
+     * Highest push count this client has written for the pipe. Not
+     * persisted, guarded by synchronizing on the descriptor.
+     * 
+     * @return
+     */
+    public int getSavedPushCount() {
+        return savedPushCount;
+    }
+
+    public void setSavedPushCount(int savedPushCount) {
+        this.savedPushCount = savedPushCount;
+    }
+
     public boolean isPushActive() {
         return PipeStatus.ACTIVE.equals(pushStatus);
     }
@@ -126,6 +183,33 @@ public class PipeDescriptorImpl implements Descriptor {
         this.popStatus = popStatus;
     }
 
+    /**
+     * Write timestamp, in micros, of the push status column when the
+     * descriptor was read. Not persisted, 0 if not read from Cassandra.
+     * 
+     * @return
+     */
+    public long getPushStatusTimestamp() {
+        return pushStatusTimestamp;
+    }
+
+    public void setPushStatusTimestamp(long pushStatusTimestamp) {
+        this.pushStatusTimestamp = pushStatusTimestamp;
+    }
+
+    /**
+     * Same as {@link #getPushStatusTimestamp()} for the pop status column.
+     * 
+     * @return
+     */
+    public long getPopStatusTimestamp() {
+        return popStatusTimestamp;
+    }
+
+    public void setPopStatusTimestamp(long popStatusTimestamp) {
+        this.popStatusTimestamp = popStatusTimestamp;
+    }
+
     public int getPopCount() {
         return popCount;
     }
@@ -151,6 +235,8 @@ public class PipeDescriptorImpl implements Descriptor {
         builder.append(popStatus);
         builder.append(", startTimestamp=");
         builder.append(pushStartTimestamp);
+        builder.append(", priority=");
+        builder.append(priority);
         builder.append("]");
         return builder.toString();
     }
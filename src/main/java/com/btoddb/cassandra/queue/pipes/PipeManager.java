@@ -32,6 +32,8 @@ public class PipeManager {
     private static final long LOCK_ACQUIRE_RETRY_WAIT = 50; // millis
     private static final int MAX_PIPES_TO_RETRIEVE = 100;
 
+    public static final double DEFAULT_LEASE_RENEW_FRACTION = 0.5;
+
     final private CassQueueImpl cq;
     final private QueueRepositoryImpl qRepos;
     final private Locker<QueueDescriptor> pipeCollectionLocker;
@@ -42,7 +44,9 @@ public class PipeManager {
 
     private ObjectLock<QueueDescriptor> pipeCollectionLock;
     private long maxOwnerIdleTime;
+    private double leaseRenewFraction = DEFAULT_LEASE_RENEW_FRACTION;
     private int maxPipesToRetrieve = MAX_PIPES_TO_RETRIEVE;
+    private long pickCount = 0;
 
     private QueueDescriptor queueDescriptor;
     
@@ -67,6 +71,10 @@ public class PipeManager {
      * "selection lock" will be acquired and a pipe will be selected. If a pipe
      * has been selected and it is still usable (not expired, not empty, not
      * closed) then it is used. If the current pipe has expired, it is released.
+     * <p/>
+     * Ownership of a pipe that is still usable is not refreshed here, the
+     * popper renews it when it moves messages out of the pipe and
+     * {@link #checkLeaseRenewalNeeded(PipeDescriptorImpl)} says so.
      * 
      * @return
      * @throws Exception
@@ -75,7 +83,6 @@ public class PipeManager {
         synchronized (currentPipeMonitor) {
             if (pipeStillUsable()) {
                 logger.debug("{} : pipe is still usable = {}", popperId, currentPipe);
-                ownPipe(currentPipe);
                 return currentPipe;
             }
 
@@ -111,19 +118,33 @@ public class PipeManager {
         }
     }
     
+    /**
+     * Look for an ownable pipe one priority at a time. Higher priorities are
+     * looked at first, except once every priorityStarvationRatio + 1 picks
+     * when the lowest are, so a backlog of high priority msgs cannot starve
+     * the others.
+     */
     private PipeDescriptorImpl choosePipe() {
-        // if no pipes available, return now
-        List<PipeDescriptorImpl> pipeDescList = retrievePipeList();
-        if (null == pipeDescList || pipeDescList.isEmpty()) {
-            logger.debug("no non-empty non-finished pipe descriptors found");
-            return null;
-        }
+        int numPriorities = cq.getNumPriorities();
+        int ratio = cq.getPriorityStarvationRatio();
+        boolean lowestFirst = 0 < ratio && ratio == pickCount++ % (ratio + 1);
+
+        for (int i = 0; i < numPriorities; i++) {
+            int priority = lowestFirst ? i : numPriorities - 1 - i;
+
+            // if no pipes available, try next priority
+            List<PipeDescriptorImpl> pipeDescList = retrievePipeList(priority);
+            if (null == pipeDescList || pipeDescList.isEmpty()) {
+                logger.debug("no non-empty non-finished pipe descriptors found for priority {}", priority);
+                continue;
+            }
 
-        for (PipeDescriptorImpl pd : pipeDescList) {
-            if (checkPipeOwnable(pd)) {
-                ownPipe(pd);
-                logger.debug("{} : picked pipe {}", popperId, pd.getPipeId());
-                return pd;
+            for (PipeDescriptorImpl pd : pipeDescList) {
+                if (checkPipeOwnable(pd)) {
+                    ownPipe(pd);
+                    logger.debug("{} : picked pipe {}", popperId, pd.getPipeId());
+                    return pd;
+                }
             }
         }
         return null;
@@ -207,6 +228,26 @@ public class PipeManager {
         return result;
     }
 
+    /**
+     * Ownership of a pipe is a lease lasting maxOwnerIdleTime from the pop
+     * owner timestamp. Renewing it costs a write, so it is only renewed once
+     * less than leaseRenewFraction of the lease remains.
+     * 
+     * @param pd
+     *            pipe owned by this manager's popper
+     * @return true if the owner timestamp should be saved again
+     */
+    public boolean checkLeaseRenewalNeeded(PipeDescriptorImpl pd) {
+        if (!checkSameOwner(pd) || null == pd.getPopOwnTimestamp()) {
+            return true;
+        }
+
+        long remaining = maxOwnerIdleTime - (System.currentTimeMillis() - pd.getPopOwnTimestamp());
+        boolean result = remaining < leaseRenewFraction * maxOwnerIdleTime;
+        logger.debug("checkLeaseRenewalNeeded : " + pd.getId().toString() + " = " + result);
+        return result;
+    }
+
     private void acquirePipeCollectionLock() {
         pipeCollectionLock =
                 pipeCollectionLocker.lock(queueDescriptor, MAX_LOCK_ACQUIRE_TRIES, LOCK_ACQUIRE_RETRY_WAIT);
@@ -233,8 +274,8 @@ public class PipeManager {
         }
     }
 
-    private List<PipeDescriptorImpl> retrievePipeList() {
-        return qRepos.getOldestPopActivePipes(cq.getName(), maxPipesToRetrieve);
+    private List<PipeDescriptorImpl> retrievePipeList(int priority) {
+        return qRepos.getOldestPopActivePipes(cq.getName(), maxPipesToRetrieve, priority);
     }
 
     public void setMaxOwnerIdleTime(long maxOwnerIdleTime) {
@@ -252,6 +293,14 @@ public class PipeManager {
         return maxOwnerIdleTime;
     }
 
+    public double getLeaseRenewFraction() {
+        return leaseRenewFraction;
+    }
+
+    public void setLeaseRenewFraction(double leaseRenewFraction) {
+        this.leaseRenewFraction = leaseRenewFraction;
+    }
+
     /**
      * If pipe is no longer push active it is marked as pop finished. This
      * method assumes that the pipe is "empty".
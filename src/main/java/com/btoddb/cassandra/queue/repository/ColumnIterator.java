@@ -20,7 +20,31 @@ public class ColumnIterator {
     }
 
     public void doIt(Cluster cluster, String keyspaceName, String colFamName, byte[] rowKey,
-            byte[] lastColName, ColumnOperator op) {
+            byte[] lastColName, final ColumnOperator op) {
+        doItByPage(cluster, keyspaceName, colFamName, rowKey, lastColName, new PageOperator() {
+            @Override
+            public boolean execute(List<HColumn<byte[], byte[]>> colList) {
+                for (HColumn<byte[], byte[]> col : colList) {
+                    if (!op.execute(col)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        });
+    }
+
+    public void doItByPage(Cluster cluster, String keyspaceName, String colFamName, byte[] rowKey, PageOperator op) {
+        doItByPage(cluster, keyspaceName, colFamName, rowKey, null, op);
+    }
+
+    /**
+     * Same as {@link #doIt(Cluster, String, String, byte[], byte[], ColumnOperator)}
+     * but hands the operator a whole page of columns at a time, so it can
+     * process the page with one call to Cassandra instead of one per column.
+     */
+    public void doItByPage(Cluster cluster, String keyspaceName, String colFamName, byte[] rowKey,
+            byte[] lastColName, PageOperator op) {
         BytesArraySerializer bs = BytesArraySerializer.get();
         Keyspace keyspace = HFactory.createKeyspace(keyspaceName, cluster);
         SliceQuery<byte[], byte[], byte[]> sliceQuery = HFactory.createSliceQuery(keyspace, bs, bs, bs);
@@ -41,19 +65,16 @@ public class ColumnIterator {
                 break;
             }
 
-            for (HColumn<byte[], byte[]> col : colList) {
-                if (skipFirst) {
-                    skipFirst = false;
-                    lastColName = null;
-                    continue;
-                }
-
-                if (!op.execute(col)) {
-                    return;
-                }
+            List<HColumn<byte[], byte[]>> page = skipFirst ? colList.subList(1, colList.size()) : colList;
+            if (!op.execute(page)) {
+                return;
+            }
 
-                lastColName = col.getName();
+            // short page means there are no more columns
+            if (colList.size() <= maxColsPerPage) {
+                break;
             }
+            lastColName = page.get(page.size() - 1).getName();
         }
     }
 
@@ -61,6 +82,10 @@ public class ColumnIterator {
         boolean execute(HColumn<byte[], byte[]> col);
     }
 
+    public interface PageOperator {
+        boolean execute(List<HColumn<byte[], byte[]>> colList);
+    }
+
     public void setMaxColsPerPage(int maxColsPerPage) {
 		this.maxColsPerPage = maxColsPerPage;
 	}
@@ -10,6 +10,7 @@ import me.prettyprint.hector.api.Keyspace;
 import me.prettyprint.hector.api.factory.HFactory;
 
 import com.btoddb.cassandra.queue.app.QueueProperties;
+import com.btoddb.cassandra.queue.utils.MonotonicClockResolution;
 import me.prettyprint.hom.EntityManagerImpl;
 
 public class HectorUtils {
@@ -37,6 +38,9 @@ public class HectorUtils {
         hc.setRetryDownedHostsQueueSize(envProps.getRetryDownedHostsQueueSize());
         hc.setUseThriftFramedTransport(envProps.getUseThriftFramedTransport());
 
+        // must be set before the cluster is created - hector reads it once
+        CassandraHostConfigurator.setClockResolution(new MonotonicClockResolution());
+
         Cluster c = HFactory.getOrCreateCluster(QueueRepositoryImpl.QUEUE_POOL_NAME, hc);
 
         Keyspace keyspace = HFactory.createKeyspace(QueueRepositoryImpl.QUEUE_KEYSPACE_NAME, c);
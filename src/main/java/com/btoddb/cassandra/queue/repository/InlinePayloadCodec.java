@@ -0,0 +1,61 @@
+package com.btoddb.cassandra.queue.repository;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import com.btoddb.cassandra.queue.model.MessageDescriptor;
+
+/**
+ * Encodes a message's descriptor directly into its "waiting" or "pending"
+ * column value so the message can be read without loading its row from
+ * {@link QueueRepositoryImpl#MSG_DESCRIPTOR_COLFAM}.
+ * <p/>
+ * Format: [byte version][long createTimestamp][long popTimestamp][int
+ * deliveryCount][payload]. A pop timestamp of zero means the message has not
+ * been popped. An empty value means the descriptor is stored in its own row.
+ * Version 1 values, written before the delivery count was added, are still
+ * decoded with a delivery count of zero.
+ */
+public class InlinePayloadCodec {
+    public static final byte VERSION = 2;
+    public static final int HEADER_SIZE = 1 + 8 + 8 + 4;
+
+    private static final byte VERSION_1 = 1;
+
+    public static boolean isInline(byte[] colValue) {
+        return null != colValue && 0 < colValue.length;
+    }
+
+    public static byte[] encode(MessageDescriptor msgDesc) {
+        ByteBuffer payload = msgDesc.getPayloadAsByteBuffer();
+        ByteBuffer bb = ByteBuffer.allocate(HEADER_SIZE + payload.remaining());
+        bb.put(VERSION);
+        bb.putLong(null != msgDesc.getCreateTimestamp() ? msgDesc.getCreateTimestamp() : 0);
+        bb.putLong(null != msgDesc.getPopTimestamp() ? msgDesc.getPopTimestamp() : 0);
+        bb.putInt(msgDesc.getDeliveryCount());
+        bb.put(payload);
+        return bb.array();
+    }
+
+    public static MessageDescriptor decode(UUID msgId, byte[] colValue) {
+        ByteBuffer bb = ByteBuffer.wrap(colValue);
+        byte ver = bb.get();
+        if (VERSION != ver && VERSION_1 != ver) {
+            throw new IllegalStateException("unknown inline message format version, " + ver + ", for msg " + msgId);
+        }
+
+        MessageDescriptor msgDesc = new MessageDescriptor();
+        msgDesc.setMsgId(msgId);
+        msgDesc.setCreateTimestamp(bb.getLong());
+        long popTimestamp = bb.getLong();
+        if (0 != popTimestamp) {
+            msgDesc.setPopTimestamp(popTimestamp);
+        }
+        if (VERSION_1 != ver) {
+            msgDesc.setDeliveryCount(bb.getInt());
+        }
+        // payload shares the column value instead of being copied
+        msgDesc.setPayloadBuffer(bb.slice());
+        return msgDesc;
+    }
+}
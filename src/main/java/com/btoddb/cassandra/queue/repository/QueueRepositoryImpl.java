@@ -1,6 +1,8 @@
 package com.btoddb.cassandra.queue.repository;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -9,8 +11,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 import me.prettyprint.cassandra.model.QuorumAllConsistencyLevelPolicy;
+import me.prettyprint.cassandra.serializers.ByteBufferSerializer;
 import me.prettyprint.cassandra.serializers.BytesArraySerializer;
 import me.prettyprint.cassandra.serializers.IntegerSerializer;
 import me.prettyprint.cassandra.serializers.LongSerializer;
@@ -26,12 +30,14 @@ import me.prettyprint.hector.api.beans.ColumnSlice;
 import me.prettyprint.hector.api.beans.HColumn;
 import me.prettyprint.hector.api.beans.OrderedRows;
 import me.prettyprint.hector.api.beans.Row;
+import me.prettyprint.hector.api.beans.Rows;
 import me.prettyprint.hector.api.ddl.KeyspaceDefinition;
 import me.prettyprint.hector.api.exceptions.HectorException;
 import me.prettyprint.hector.api.factory.HFactory;
 import me.prettyprint.hector.api.mutation.Mutator;
 import me.prettyprint.hector.api.query.ColumnQuery;
 import me.prettyprint.hector.api.query.CountQuery;
+import me.prettyprint.hector.api.query.MultigetSliceQuery;
 import me.prettyprint.hector.api.query.QueryResult;
 import me.prettyprint.hector.api.query.RangeSlicesQuery;
 import me.prettyprint.hector.api.query.SliceQuery;
@@ -90,16 +96,22 @@ public class QueueRepositoryImpl {
     public static final String PDESC_COLNAME_PUSH_START_TIMESTAMP = "pushStartTs";
     public static final String PDESC_COLNAME_POP_OWNER_ID = "popOwnerId";
     public static final String PDESC_COLNAME_POP_OWNER_TIMESTAMP = "popOwnerTs";
+    public static final String PDESC_COLNAME_PRIORITY = "priority";
 
     public static final String MSG_DESCRIPTOR_COLFAM = "MessageDescriptors";
     public static final String MDESC_COLNAME_POP_TIMESTAMP = "popTimestamp";
+    public static final String MDESC_COLNAME_DELIVERY_COUNT = "deliveryCount";
+    public static final String MDESC_COLNAME_PAYLOAD = "payload";
 
     protected static final String WAITING_COLFAM_SUFFIX = "_Waiting";
     protected static final String PENDING_COLFAM_SUFFIX = "_Pending";
+    protected static final String DELAYED_COLFAM_SUFFIX = "_Delayed";
+    protected static final String DEAD_LETTER_QUEUE_SUFFIX = "_DLQ";
     protected static final int GC_GRACE_SECS = 86400; // one day
 
     protected static final int MAX_QUEUE_DESCRIPTOR_COLUMNS = 100;
     protected static final int MAX_PIPE_DESCRIPTOR_COLUMNS = 100;
+    protected static final int MAX_MSG_DESCRIPTOR_COLUMNS = 100;
 
     public static final String SYSTEM_KEYSPACE_NAME = "system";
     public static final String STRATEGY_CLASS_NAME = "org.apache.cassandra.locator.SimpleStrategy";
@@ -112,6 +124,16 @@ public class QueueRepositoryImpl {
     private final int replicationFactor;
     private EntityManagerImpl entityMgr;
 
+    // number of calls to cassandra made while pushing, and the number of msgs
+    // they pushed
+    private final AtomicLong pushRoundTripCount = new AtomicLong();
+    private final AtomicLong pushMsgCount = new AtomicLong();
+
+    // number of calls to cassandra made while popping, not including picking
+    // a pipe, and the number of msgs they popped
+    private final AtomicLong popRoundTripCount = new AtomicLong();
+    private final AtomicLong popMsgCount = new AtomicLong();
+
     public QueueRepositoryImpl(Cluster cluster, int replicationFactor, Keyspace keyspace, EntityManagerImpl entityMgr) {
         this.cluster = cluster;
         this.replicationFactor = replicationFactor;
@@ -134,6 +156,44 @@ public class QueueRepositoryImpl {
      */
     public QueueDescriptor createQueueIfDoesntExist(String qName, long maxPushTimePerPipe, int maxPushesPerPipe,
             long transactionTimeout) {
+        return createQueueIfDoesntExist(qName, maxPushTimePerPipe, maxPushesPerPipe, transactionTimeout, 0);
+    }
+
+    /**
+     * Same as {@link #createQueueIfDoesntExist(String, long, int, long)} but
+     * also sets the largest payload stored inline in the pipe's column value.
+     * 
+     * @param qName
+     * @param maxPushTimePerPipe
+     * @param maxPushesPerPipe
+     * @param transactionTimeout
+     * @param maxInlinePayloadSize
+     *            0 disables inline payloads
+     * @return QueueDescriptor
+     */
+    public QueueDescriptor createQueueIfDoesntExist(String qName, long maxPushTimePerPipe, int maxPushesPerPipe,
+            long transactionTimeout, int maxInlinePayloadSize) {
+        return createQueueIfDoesntExist(qName, maxPushTimePerPipe, maxPushesPerPipe, transactionTimeout,
+                maxInlinePayloadSize, 1);
+    }
+
+    /**
+     * Same as {@link #createQueueIfDoesntExist(String, long, int, long, int)}
+     * but also sets the number of priority lanes.
+     * 
+     * @param qName
+     * @param maxPushTimePerPipe
+     * @param maxPushesPerPipe
+     * @param transactionTimeout
+     * @param maxInlinePayloadSize
+     *            0 disables inline payloads
+     * @param numPriorities
+     *            msgs can be pushed with a priority from 0 to numPriorities -
+     *            1
+     * @return QueueDescriptor
+     */
+    public QueueDescriptor createQueueIfDoesntExist(String qName, long maxPushTimePerPipe, int maxPushesPerPipe,
+            long transactionTimeout, int maxInlinePayloadSize, int numPriorities) {
         CfDef colFamDef =
                 new CfDef(QUEUE_KEYSPACE_NAME, formatWaitingColFamName(qName)).setComparator_type("TimeUUIDType")
                         .setGc_grace_seconds(GC_GRACE_SECS);
@@ -159,7 +219,20 @@ public class QueueRepositoryImpl {
                     + " - possibly already exists and is OK");
         }
 
-        return createQueueDescriptorIfNotExists(qName, maxPushTimePerPipe, maxPushesPerPipe, transactionTimeout);
+        colFamDef =
+                new CfDef(QUEUE_KEYSPACE_NAME, formatDelayedColFamName(qName)).setComparator_type("TimeUUIDType")
+                        .setGc_grace_seconds(GC_GRACE_SECS);
+        try {
+            ver = createColumnFamily(colFamDef);
+            waitForSchemaSync(ver);
+        }
+        catch (Exception e) {
+            logger.info("exception while trying to create column family, " + colFamDef.getName()
+                    + " - possibly already exists and is OK");
+        }
+
+        return createQueueDescriptorIfNotExists(qName, maxPushTimePerPipe, maxPushesPerPipe, transactionTimeout,
+                maxInlinePayloadSize, numPriorities);
     }
 
     private void waitForSchemaSync(String newVer) {
@@ -180,13 +253,15 @@ public class QueueRepositoryImpl {
     }
 
     private QueueDescriptor createQueueDescriptorIfNotExists(String qName, long maxPushTimePerPipe,
-            int maxPushesPerPipe, long transactionTimeout) {
+            int maxPushesPerPipe, long transactionTimeout, int maxInlinePayloadSize, int numPriorities) {
         QueueDescriptor qDesc = getQueueDescriptor(qName);
         if (null == qDesc) {
             qDesc = new QueueDescriptor(qName);
             qDesc.setMaxPushesPerPipe(maxPushesPerPipe);
             qDesc.setMaxPushTimePerPipe(maxPushTimePerPipe);
             qDesc.setTransactionTimeout(transactionTimeout);
+            qDesc.setMaxInlinePayloadSize(maxInlinePayloadSize);
+            qDesc.setNumPriorities(numPriorities);
             qDesc = entityMgr.save(qDesc);
         }
         return qDesc;
@@ -272,45 +347,344 @@ public class QueueRepositoryImpl {
     }
 
     public CassQMsg insertMsg(PipeDescriptorImpl pipeDesc, UUID msgId, byte[] msgData) {
-        // save the message descriptor
-        MessageDescriptor msgDesc = new MessageDescriptor();
-        msgDesc.setMsgId(msgId);
-        msgDesc.setPayload(msgData);
-        msgDesc.setCreateTimestamp(System.currentTimeMillis());
-        entityMgr.persist(msgDesc);
+        return insertMsg(pipeDesc, msgId, msgData, 0);
+    }
 
-        Mutator<UUID> m = HFactory.createMutator(keyspace, UUIDSerializer.get());
+    public CassQMsg insertMsg(PipeDescriptorImpl pipeDesc, UUID msgId, byte[] msgData, int maxInlinePayloadSize) {
+        return insertMsgs(pipeDesc, Collections.singletonList(msgId), Collections.singletonList(msgData),
+                maxInlinePayloadSize).get(0);
+    }
 
-        // add insert into waiting
-        HColumn<UUID, byte[]> colMsg =
-                HFactory.createColumn(msgId, HectorUtils.EMPTY_BYTES, UUIDSerializer.get(), BytesArraySerializer.get());
-        m.addInsertion(pipeDesc.getPipeId(), formatWaitingColFamName(pipeDesc.getQName()), colMsg);
+    public List<CassQMsg> insertMsgs(PipeDescriptorImpl pipeDesc, List<UUID> msgIdList, List<byte[]> msgDataList) {
+        return insertMsgs(pipeDesc, msgIdList, msgDataList, 0);
+    }
 
-        // update push count
-        HColumn<String, Integer> colPipeDesc =
-                HFactory.createColumn(PDESC_COLNAME_PUSH_COUNT, pipeDesc.getPushCount(), StringSerializer.get(),
-                        IntegerSerializer.get());
-        m.addInsertion(pipeDesc.getPipeId(), PIPE_DESCRIPTOR_COLFAM, colPipeDesc);
+    /**
+     * Insert a batch of messages into the given pipe using a single mutation.
+     * The message descriptors, the "waiting" columns and the pipe's push count
+     * are all written by one call to Cassandra.
+     * 
+     * @param pipeDesc
+     *            pipe to receive the messages
+     * @param msgIdList
+     *            IDs of the messages, in the same order as msgDataList
+     * @param msgDataList
+     *            payloads of the messages
+     * @param maxInlinePayloadSize
+     *            payloads up to this size are stored in the "waiting" column
+     *            value instead of a message descriptor row. 0 disables
+     * @return list of {@link CassQMsg} in the same order as msgDataList
+     */
+    public List<CassQMsg> insertMsgs(PipeDescriptorImpl pipeDesc, List<UUID> msgIdList, List<byte[]> msgDataList,
+            int maxInlinePayloadSize) {
+        List<ByteBuffer> bufList = new ArrayList<ByteBuffer>(msgDataList.size());
+        for (byte[] msgData : msgDataList) {
+            bufList.add(ByteBuffer.wrap(msgData));
+        }
+        return insertMsgs(pipeDesc, msgIdList, bufList, maxInlinePayloadSize, false, true, null, null);
+    }
+
+    /**
+     * Same as {@link #insertMsgs(PipeDescriptorImpl, List, List, int)} but can
+     * also create the pipe and seal the pusher's previous pipe in the same
+     * mutation, so switching pipes costs no extra calls to Cassandra.
+     * Payloads are given as buffers and passed to Thrift without copying,
+     * unless they are inline or direct, see
+     * {@link MessageDescriptor#setPayloadBuffer(ByteBuffer)}.
+     * 
+     * @param createPipe
+     *            true if pipeDesc was made by
+     *            {@link #newPipeDescriptor(String, UUID, long, int)} and does
+     *            not exist yet
+     * @param savePushCount
+     *            false to leave the pipe's stored push count as is. The
+     *            count of a new pipe is always saved
+     * @param sealPipeDesc
+     *            pipe to seal with {@link #sealPipe(PipeDescriptorImpl)}, null
+     *            if none
+     * @param expiredPipeDesc
+     *            expired pipe to save the final push count of, null if none.
+     *            Its status is left to poppers
+     */
+    public List<CassQMsg> insertMsgs(PipeDescriptorImpl pipeDesc, List<UUID> msgIdList, List<ByteBuffer> msgDataList,
+            int maxInlinePayloadSize, boolean createPipe, boolean savePushCount, PipeDescriptorImpl sealPipeDesc,
+            PipeDescriptorImpl expiredPipeDesc) {
+        if (msgIdList.size() != msgDataList.size()) {
+            throw new IllegalArgumentException("number of message IDs, " + msgIdList.size()
+                    + ", does not match number of messages, " + msgDataList.size());
+        }
+
+        long now = System.currentTimeMillis();
+        List<MessageDescriptor> msgDescList = new ArrayList<MessageDescriptor>(msgDataList.size());
+        List<CassQMsg> qMsgList = new ArrayList<CassQMsg>(msgDataList.size());
+        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+        byte[] pipeIdAsBytes = UUIDSerializer.get().toBytes(pipeDesc.getPipeId());
+        String waitingColFamName = formatWaitingColFamName(pipeDesc.getQName());
+
+        for (int i = 0; i < msgDataList.size(); i++) {
+            UUID msgId = msgIdList.get(i);
+            MessageDescriptor msgDesc = new MessageDescriptor();
+            msgDesc.setMsgId(msgId);
+            msgDesc.setPayloadBuffer(msgDataList.get(i));
+            msgDesc.setCreateTimestamp(now);
+
+            // small payloads go in the waiting column itself, so no descriptor
+            boolean inline = 0 < maxInlinePayloadSize && msgDesc.getPayloadSize() <= maxInlinePayloadSize;
+            byte[] colValue;
+            if (inline) {
+                colValue = InlinePayloadCodec.encode(msgDesc);
+            }
+            else {
+                colValue = HectorUtils.EMPTY_BYTES;
+                msgDescList.add(msgDesc);
+            }
+
+            // add insert into waiting
+            m.addInsertion(pipeIdAsBytes, waitingColFamName, HFactory.createColumn(msgId, colValue,
+                    UUIDSerializer.get(), BytesArraySerializer.get()));
+
+            qMsgList.add(new CassQMsg(pipeDesc, msgId, msgDesc, inline));
+        }
+
+        // add the message descriptors to the same mutation
+        if (!msgDescList.isEmpty()) {
+            addMsgDescriptorInsertions(m, msgDescList);
+        }
+
+        // update push count, a new pipe's descriptor already includes it
+        if (createPipe) {
+            addCreatePipeMutations(m, pipeDesc);
+        }
+        else if (savePushCount) {
+            addPushCountInsertion(m, pipeDesc);
+        }
+        if (null != sealPipeDesc) {
+            addSealPipeMutations(m, sealPipeDesc);
+        }
+        if (null != expiredPipeDesc) {
+            addPushCountInsertion(m, expiredPipeDesc);
+        }
 
         m.execute();
+        pushRoundTripCount.incrementAndGet();
+        pushMsgCount.addAndGet(qMsgList.size());
+
+        return qMsgList;
+    }
 
-        return new CassQMsg(pipeDesc, msgId, msgDesc);
+    /**
+     * Payloads held as buffers are not seen by the entity mapper, they are
+     * written as their own column straight from the buffer.
+     */
+    private void addMsgDescriptorInsertions(Mutator<byte[]> m, List<MessageDescriptor> msgDescList) {
+        entityMgr.persist(msgDescList, m);
+        for (MessageDescriptor msgDesc : msgDescList) {
+            if (null != msgDesc.getPayloadBuffer()) {
+                m.addInsertion(UUIDSerializer.get().toBytes(msgDesc.getMsgId()), MSG_DESCRIPTOR_COLFAM, HFactory
+                        .createColumn(MDESC_COLNAME_PAYLOAD, msgDesc.getPayloadBuffer(), StringSerializer.get(),
+                                ByteBufferSerializer.get()));
+            }
+        }
     }
 
     public void updatePipePushStatus(PipeDescriptorImpl pipeDesc, PipeStatus status) {
-        Mutator<UUID> m = HFactory.createMutator(keyspace, UUIDSerializer.get());
-        HColumn<String, String> col =
-                HFactory.createColumn(PDESC_COLNAME_PUSH_STATUS, status.getName(), StringSerializer.get(),
-                        StringSerializer.get());
-        m.insert(pipeDesc.getPipeId(), PIPE_DESCRIPTOR_COLFAM, col);
+        updatePipeStatus(pipeDesc, PDESC_COLNAME_PUSH_STATUS, status);
     }
 
     public void updatePipePopStatus(PipeDescriptorImpl pipeDesc, PipeStatus status) {
-        Mutator<UUID> m = HFactory.createMutator(keyspace, UUIDSerializer.get());
+        updatePipeStatus(pipeDesc, PDESC_COLNAME_POP_STATUS, status);
+    }
+
+    /**
+     * Save the push or pop status of the pipe and move the pipe to the
+     * matching status index row, all in one mutation.
+     */
+    private void updatePipeStatus(PipeDescriptorImpl pipeDesc, String statusColName, PipeStatus status) {
+        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+        addPipeStatusMutations(m, pipeDesc, statusColName, status);
+        m.execute();
+    }
+
+    /**
+     * Create the pipe if newPipeDesc is not null, seal sealPipeDesc, as
+     * {@link #sealPipe(PipeDescriptorImpl)} does, if it is not null, and save
+     * the final push count of expiredPipeDesc if it is not null, in one
+     * mutation. Used when a pusher switches pipes without inserting msgs.
+     * 
+     * @param newPipeDesc
+     *            pipe made by
+     *            {@link #newPipeDescriptor(String, UUID, long, int)}, or null
+     * @param sealPipeDesc
+     *            pipe to seal, or null
+     * @param expiredPipeDesc
+     *            expired pipe, or null
+     */
+    public void switchPipes(PipeDescriptorImpl newPipeDesc, PipeDescriptorImpl sealPipeDesc,
+            PipeDescriptorImpl expiredPipeDesc) {
+        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+        if (null != newPipeDesc) {
+            addCreatePipeMutations(m, newPipeDesc);
+        }
+        if (null != sealPipeDesc) {
+            addSealPipeMutations(m, sealPipeDesc);
+        }
+        if (null != expiredPipeDesc) {
+            addPushCountInsertion(m, expiredPipeDesc);
+        }
+        m.execute();
+    }
+
+    /**
+     * Mark the pipe push {@link PipeStatus#NOT_ACTIVE} and save its final push
+     * count in one mutation. Pushers only save the count now and then while
+     * pushing, so the count written here is the one stats are rolled up from.
+     * 
+     * @param pipeDesc
+     */
+    public void sealPipe(PipeDescriptorImpl pipeDesc) {
+        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+        addSealPipeMutations(m, pipeDesc);
+        m.execute();
+    }
+
+    private void addSealPipeMutations(Mutator<byte[]> m, PipeDescriptorImpl pipeDesc) {
+        addPushCountInsertion(m, pipeDesc);
+        addPipeStatusMutations(m, pipeDesc, PDESC_COLNAME_PUSH_STATUS, PipeStatus.NOT_ACTIVE);
+    }
+
+    /**
+     * Saves of the same pipe's count can be in flight at once. Building them
+     * under the descriptor's lock, and skipping any not higher than one
+     * already built, gives a higher count a later column timestamp, so a
+     * lower count never wins.
+     */
+    private void addPushCountInsertion(Mutator<byte[]> m, PipeDescriptorImpl pipeDesc) {
+        HColumn<String, Integer> col;
+        synchronized (pipeDesc) {
+            int pushCount = pipeDesc.getPushCount();
+            if (pushCount <= pipeDesc.getSavedPushCount()) {
+                return;
+            }
+            pipeDesc.setSavedPushCount(pushCount);
+            col = HFactory.createColumn(PDESC_COLNAME_PUSH_COUNT, pushCount, StringSerializer.get(),
+                    IntegerSerializer.get());
+        }
+        m.addInsertion(UUIDSerializer.get().toBytes(pipeDesc.getPipeId()), PIPE_DESCRIPTOR_COLFAM, col);
+    }
+
+    private void addPipeStatusMutations(Mutator<byte[]> m, PipeDescriptorImpl pipeDesc, String statusColName,
+            PipeStatus status) {
         HColumn<String, String> col =
-                HFactory.createColumn(PDESC_COLNAME_POP_STATUS, status.getName(), StringSerializer.get(),
+                HFactory.createColumn(statusColName, status.getName(), StringSerializer.get(),
                         StringSerializer.get());
-        m.insert(pipeDesc.getPipeId(), PIPE_DESCRIPTOR_COLFAM, col);
+        m.addInsertion(UUIDSerializer.get().toBytes(pipeDesc.getPipeId()), PIPE_DESCRIPTOR_COLFAM, col);
+        addPipeStatusIndexMutations(m, pipeDesc.getQName(), pipeDesc.getPipeId(), pipeDesc.getPushStartTimestamp(),
+                pipeDesc.getPriority(), statusColName, status);
+    }
+
+    /**
+     * Add the pipe to the index row for the given status and remove it from
+     * the index rows of the other statuses.
+     */
+    private void addPipeStatusIndexMutations(Mutator<byte[]> m, String qName, UUID pipeId, long createTimestamp,
+            int priority, String statusColName, PipeStatus status) {
+        for (PipeStatus st : PipeStatus.values()) {
+            if (st == status) {
+                addPipeStatusIndexInsertion(m, qName, pipeId, createTimestamp, priority, statusColName, st);
+            }
+            else {
+                m.addDeletion(StringSerializer.get().toBytes(
+                        formatPipeStatusIndexKey(qName, statusColName, st, priority)), QUEUE_PIPE_CNXN_COLFAM,
+                        pipeId, UUIDSerializer.get());
+            }
+        }
+    }
+
+    private void addPipeStatusIndexInsertion(Mutator<byte[]> m, String qName, UUID pipeId, long createTimestamp,
+            int priority, String statusColName, PipeStatus status) {
+        addPipeStatusIndexInsertion(m, qName, pipeId, createTimestamp, priority, statusColName, status,
+                keyspace.createClock());
+    }
+
+    private void addPipeStatusIndexInsertion(Mutator<byte[]> m, String qName, UUID pipeId, long createTimestamp,
+            int priority, String statusColName, PipeStatus status, long clock) {
+        m.addInsertion(StringSerializer.get().toBytes(formatPipeStatusIndexKey(qName, statusColName, status,
+                priority)), QUEUE_PIPE_CNXN_COLFAM, HFactory.createColumn(pipeId, createTimestamp, clock,
+                UUIDSerializer.get(), LongSerializer.get()));
+    }
+
+    /**
+     * Row key, in {@link #QUEUE_PIPE_CNXN_COLFAM}, of the index of the queue's
+     * pipes having the given push or pop status. Columns are the same as the
+     * queue's own CNXN row, pipe ID to create timestamp.
+     * 
+     * @param qName
+     * @param statusColName
+     *            {@link #PDESC_COLNAME_PUSH_STATUS} or
+     *            {@link #PDESC_COLNAME_POP_STATUS}
+     * @param status
+     * @return
+     */
+    public static String formatPipeStatusIndexKey(String qName, String statusColName, PipeStatus status) {
+        return qName + ":" + statusColName + ":" + status.getName();
+    }
+
+    /**
+     * Same as {@link #formatPipeStatusIndexKey(String, String, PipeStatus)}
+     * but pop active pipes are indexed per priority, so poppers can look for
+     * pipes of one priority without reading past the others. Priority 0 uses
+     * the same row as pipes without a priority.
+     * 
+     * @param qName
+     * @param statusColName
+     * @param status
+     * @param priority
+     * @return
+     */
+    public static String formatPipeStatusIndexKey(String qName, String statusColName, PipeStatus status,
+            int priority) {
+        String key = formatPipeStatusIndexKey(qName, statusColName, status);
+        if (0 != priority && PDESC_COLNAME_POP_STATUS.equals(statusColName) && PipeStatus.ACTIVE == status) {
+            key += ":" + priority;
+        }
+        return key;
+    }
+
+    /**
+     * Add every pipe of the queue to the status index rows. Only needed for
+     * pipes created before the index rows existed, status changes keep the
+     * index up to date after that. Each entry is written with the timestamp
+     * of the status column it was read from, so if a pusher or popper changes
+     * the status after the read, its deletion of the old entry is newer and
+     * wins. This makes it safe to run while pushers and poppers are working.
+     * 
+     * @param qName
+     */
+    public void rebuildPipeStatusIndexes(final String qName) {
+        final Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+        iteratePipes(qName, new PipeOperator() {
+            int count = 0;
+
+            @Override
+            public boolean execute(UUID pipeId, long createTimestamp, PipeDescriptorImpl pipeDesc) {
+                if (null == pipeDesc) {
+                    return true;
+                }
+
+                addPipeStatusIndexInsertion(m, qName, pipeId, createTimestamp, pipeDesc.getPriority(),
+                        PDESC_COLNAME_PUSH_STATUS, pipeDesc.getPushStatus(), pipeDesc.getPushStatusTimestamp());
+                addPipeStatusIndexInsertion(m, qName, pipeId, createTimestamp, pipeDesc.getPriority(),
+                        PDESC_COLNAME_POP_STATUS, pipeDesc.getPopStatus(), pipeDesc.getPopStatusTimestamp());
+                count++;
+                if (count >= 100) {
+                    m.execute();
+                    m.discardPendingMutations();
+                    count = 0;
+                }
+                return true;
+            }
+        });
+        m.execute();
     }
 
     public void updatePipePopCount(PipeDescriptorImpl pipeDesc, int popCount, MessageDescriptor msgDesc) {
@@ -331,7 +705,12 @@ public class QueueRepositoryImpl {
     }
 
     public List<PipeDescriptorImpl> getOldestPopActivePipes(final String qName, final int maxNumPipeDescs) {
-        return getPipesByPushPopStatus(qName, maxNumPipeDescs, null, PipeStatus.ACTIVE);
+        return getOldestPopActivePipes(qName, maxNumPipeDescs, 0);
+    }
+
+    public List<PipeDescriptorImpl> getOldestPopActivePipes(final String qName, final int maxNumPipeDescs,
+            int priority) {
+        return getPipesByPushPopStatus(qName, maxNumPipeDescs, null, PipeStatus.ACTIVE, priority);
     }
 
     public List<PipeDescriptorImpl> getCompletedPipes(final String qName, final int maxNumPipeDescs) {
@@ -350,39 +729,100 @@ public class QueueRepositoryImpl {
         return getPipesByPushPopStatus(qName, maxNumPipeDescs, null, null);
     }
 
+    /**
+     * Return the oldest pipes having the given push and pop status, null
+     * matches any status. When a status is given only that status' index row
+     * is read, instead of every pipe of the queue. The descriptor is still
+     * checked because the index may briefly lag the descriptor.
+     */
     public List<PipeDescriptorImpl> getPipesByPushPopStatus(final String qName, final int maxNumPipeDescs,
             final PipeStatus pushStatus, final PipeStatus popStatus) {
+        return getPipesByPushPopStatus(qName, maxNumPipeDescs, pushStatus, popStatus, 0);
+    }
+
+    /**
+     * Same as
+     * {@link #getPipesByPushPopStatus(String, int, PipeStatus, PipeStatus)}
+     * but reads the index row of the given priority when looking for pop
+     * active pipes.
+     */
+    public List<PipeDescriptorImpl> getPipesByPushPopStatus(final String qName, final int maxNumPipeDescs,
+            final PipeStatus pushStatus, final PipeStatus popStatus, final int priority) {
         final List<PipeDescriptorImpl> pipeDescList = new LinkedList<PipeDescriptorImpl>();
 
-        ColumnIterator rawMsgColIter = new ColumnIterator();
-        rawMsgColIter.doIt(cluster, QUEUE_KEYSPACE_NAME, QUEUE_PIPE_CNXN_COLFAM, qName.getBytes(),
-                new ColumnIterator.ColumnOperator() {
+        String cnxnRowKey;
+        if (null != popStatus) {
+            cnxnRowKey = formatPipeStatusIndexKey(qName, PDESC_COLNAME_POP_STATUS, popStatus, priority);
+        }
+        else if (null != pushStatus) {
+            cnxnRowKey = formatPipeStatusIndexKey(qName, PDESC_COLNAME_PUSH_STATUS, pushStatus);
+        }
+        else {
+            cnxnRowKey = qName;
+        }
+
+        iteratePipes(cnxnRowKey, new PipeOperator() {
+            @Override
+            public boolean execute(UUID pipeId, long createTimestamp, PipeDescriptorImpl pipeDesc) {
+                if (null == pipeDesc) {
+                    // if descriptor and CNXN are out of sync more than
+                    // a minute then remove
+                    if (60000 < System.currentTimeMillis() - createTimestamp) {
+                        logger.info("pipeId ({}, {}) does not have a descriptor and is expired", pipeId,
+                                createTimestamp);
+                        removePipeDescriptor(qName, pipeId, priority);
+                    }
+                    return true;
+                }
+
+                if ((null == pushStatus || pipeDesc.getPushStatus().equals(pushStatus))
+                        && (null == popStatus || pipeDesc.getPopStatus().equals(popStatus))) {
+                    pipeDescList.add(pipeDesc);
+                }
+
+                return pipeDescList.size() < maxNumPipeDescs;
+            }
+        });
+
+        return pipeDescList;
+    }
+
+    /**
+     * Walk the queue's pipes, oldest first. Pipe descriptors are loaded a page
+     * at a time with one multiget per page of the CNXN row.
+     * 
+     * @param cnxnRowKey
+     *            queue name, or a status index row key
+     * @param op
+     *            called for each pipe, with a null descriptor if the pipe has
+     *            none. Return false to stop
+     */
+    private void iteratePipes(String cnxnRowKey, final PipeOperator op) {
+        ColumnIterator cnxnColIter = new ColumnIterator();
+        cnxnColIter.doItByPage(cluster, QUEUE_KEYSPACE_NAME, QUEUE_PIPE_CNXN_COLFAM, cnxnRowKey.getBytes(),
+                new ColumnIterator.PageOperator() {
                     @Override
-                    public boolean execute(HColumn<byte[], byte[]> col) {
-                        UUID pipeId = UUIDSerializer.get().fromBytes(col.getName());
-                        PipeDescriptorImpl pipeDesc = getPipeDescriptor(pipeId);
-                        if (null == pipeDesc) {
-                            long createTimestamp = LongSerializer.get().fromBytes(col.getValue());
-                            // if descriptor and CNXN are out of sync more than
-                            // a minute then remove
-                            if (60000 < System.currentTimeMillis() - createTimestamp) {
-                                logger.info("pipeId ({}, {}) does not have a descriptor and is expired", pipeId,
-                                        createTimestamp);
-                                removePipeDescriptor(qName, pipeId);
-                            }
-                            return true;
+                    public boolean execute(List<HColumn<byte[], byte[]>> colList) {
+                        List<UUID> pipeIdList = new ArrayList<UUID>(colList.size());
+                        for (HColumn<byte[], byte[]> col : colList) {
+                            pipeIdList.add(UUIDSerializer.get().fromBytes(col.getName()));
                         }
 
-                        if ((null == pushStatus || pipeDesc.getPushStatus().equals(pushStatus))
-                                && (null == popStatus || pipeDesc.getPopStatus().equals(popStatus))) {
-                            pipeDescList.add(pipeDesc);
+                        Map<UUID, PipeDescriptorImpl> pipeDescMap = getPipeDescriptors(pipeIdList);
+                        for (int i = 0; i < colList.size(); i++) {
+                            UUID pipeId = pipeIdList.get(i);
+                            long createTimestamp = LongSerializer.get().fromBytes(colList.get(i).getValue());
+                            if (!op.execute(pipeId, createTimestamp, pipeDescMap.get(pipeId))) {
+                                return false;
+                            }
                         }
-
-                        return pipeDescList.size() < maxNumPipeDescs;
+                        return true;
                     }
                 });
+    }
 
-        return pipeDescList;
+    private interface PipeOperator {
+        boolean execute(UUID pipeId, long createTimestamp, PipeDescriptorImpl pipeDesc);
     }
 
     public List<CassQMsg> getOldestMsgsFromPendingPipe(PipeDescriptorImpl pipeDesc, int maxMsgs) {
@@ -390,41 +830,182 @@ public class QueueRepositoryImpl {
     }
 
     private List<CassQMsg> getOldestMsgsFromPipe(String colFameName, PipeDescriptorImpl pipeDesc, int maxMsgs) {
+        return getOldestMsgsFromPipe(colFameName, pipeDesc, maxMsgs, null, null);
+    }
+
+    /**
+     * Read the oldest msgs of the pipe with one slice, plus one multiget for
+     * descriptors not stored inline.
+     * 
+     * @param startAfterMsgId
+     *            if not null the slice starts after this msg, skipping the
+     *            tombstones of msgs already popped from the head of the row
+     */
+    private List<CassQMsg> getOldestMsgsFromPipe(String colFameName, PipeDescriptorImpl pipeDesc, int maxMsgs,
+            UUID startAfterMsgId, AtomicLong roundTripCount) {
         SliceQuery<UUID, UUID, byte[]> q =
                 HFactory.createSliceQuery(keyspace, UUIDSerializer.get(), UUIDSerializer.get(),
                         BytesArraySerializer.get());
         q.setColumnFamily(colFameName);
         q.setKey(pipeDesc.getPipeId());
-        q.setRange(null, null, false, maxMsgs);
+        // slice start is inclusive, ask for one more in case the start msg
+        // is still there
+        q.setRange(startAfterMsgId, null, false, null != startAfterMsgId ? maxMsgs + 1 : maxMsgs);
         QueryResult<ColumnSlice<UUID, byte[]>> res = q.execute();
+        if (null != roundTripCount) {
+            roundTripCount.incrementAndGet();
+        }
+
+        List<HColumn<UUID, byte[]>> colList = res.get().getColumns();
+        if (null != startAfterMsgId && !colList.isEmpty() && startAfterMsgId.equals(colList.get(0).getName())) {
+            colList = colList.subList(1, colList.size());
+        }
+        else if (colList.size() > maxMsgs) {
+            colList = colList.subList(0, maxMsgs);
+        }
 
-        ArrayList<CassQMsg> msgList = new ArrayList<CassQMsg>(maxMsgs);
-        for (HColumn<UUID, byte[]> col : res.get().getColumns()) {
+        return createQMsgsFromColumns(pipeDesc, colList, roundTripCount);
+    }
+
+    /**
+     * Create {@link CassQMsg}s from "waiting", "pending" or "delayed" columns.
+     * Descriptors not stored inline are loaded with one multiget.
+     */
+    private List<CassQMsg> createQMsgsFromColumns(PipeDescriptorImpl pipeDesc, List<HColumn<UUID, byte[]>> colList,
+            AtomicLong roundTripCount) {
+        List<UUID> loadList = new ArrayList<UUID>(colList.size());
+        for (HColumn<UUID, byte[]> col : colList) {
+            if (!InlinePayloadCodec.isInline(col.getValue())) {
+                loadList.add(col.getName());
+            }
+        }
+        Map<UUID, MessageDescriptor> msgDescMap = getMsgDescriptors(loadList);
+        if (null != roundTripCount && !loadList.isEmpty()) {
+            roundTripCount.incrementAndGet();
+        }
+
+        ArrayList<CassQMsg> msgList = new ArrayList<CassQMsg>(colList.size());
+        for (HColumn<UUID, byte[]> col : colList) {
             UUID msgId = col.getName();
-            CassQMsg qMsg = new CassQMsg(pipeDesc, msgId, entityMgr.load(MessageDescriptor.class, msgId));
-            msgList.add(qMsg);
+            if (InlinePayloadCodec.isInline(col.getValue())) {
+                msgList.add(new CassQMsg(pipeDesc, msgId, InlinePayloadCodec.decode(msgId, col.getValue()), true));
+            }
+            else {
+                msgList.add(new CassQMsg(pipeDesc, msgId, msgDescMap.get(msgId)));
+            }
         }
         return msgList;
     }
 
+    /**
+     * Load message descriptors for the given msg IDs with a single multiget.
+     * IDs without a descriptor are not included in the returned map.
+     * 
+     * @param msgIdList
+     * @return
+     */
+    private Map<UUID, MessageDescriptor> getMsgDescriptors(List<UUID> msgIdList) {
+        Map<UUID, MessageDescriptor> msgDescMap = new HashMap<UUID, MessageDescriptor>();
+        if (msgIdList.isEmpty()) {
+            return msgDescMap;
+        }
+
+        MultigetSliceQuery<UUID, String, ByteBuffer> q =
+                HFactory.createMultigetSliceQuery(keyspace, UUIDSerializer.get(), StringSerializer.get(),
+                        ByteBufferSerializer.get());
+        q.setColumnFamily(MSG_DESCRIPTOR_COLFAM);
+        q.setKeys(msgIdList);
+        q.setRange(null, null, false, MAX_MSG_DESCRIPTOR_COLUMNS);
+        Rows<UUID, String, ByteBuffer> rows = q.execute().get();
+
+        for (UUID msgId : msgIdList) {
+            Row<UUID, String, ByteBuffer> row = rows.getByKey(msgId);
+            if (null != row && !row.getColumnSlice().getColumns().isEmpty()) {
+                msgDescMap.put(msgId, createMsgDescriptor(msgId, row.getColumnSlice()));
+            }
+        }
+        return msgDescMap;
+    }
+
+    private MessageDescriptor getMsgDescriptor(UUID msgId) {
+        return getMsgDescriptors(Collections.singletonList(msgId)).get(msgId);
+    }
+
+    /**
+     * Map the small columns with the entity mapper and keep the payload as
+     * the buffer Thrift read it into, so large payloads are not copied.
+     */
+    private MessageDescriptor createMsgDescriptor(UUID msgId, ColumnSlice<String, ByteBuffer> colSlice) {
+        ByteBuffer payload = null;
+        MappedColumnSlice mappedSlice = new MappedColumnSlice();
+        for (HColumn<String, ByteBuffer> col : colSlice.getColumns()) {
+            if (MDESC_COLNAME_PAYLOAD.equals(col.getName())) {
+                payload = col.getValue();
+            }
+            else {
+                mappedSlice.add(HFactory.createColumn(col.getName(), BytesArraySerializer.get().fromByteBuffer(
+                        col.getValue()), StringSerializer.get(), BytesArraySerializer.get()));
+            }
+        }
+
+        MessageDescriptor msgDesc = entityMgr.load(MessageDescriptor.class, msgId, mappedSlice);
+        if (null != msgDesc && null != payload) {
+            msgDesc.setPayloadBuffer(payload);
+        }
+        return msgDesc;
+    }
+
+    /**
+     * Columns already read, handed to the entity mapper.
+     */
+    private static class MappedColumnSlice implements ColumnSlice<String, byte[]> {
+        private final List<HColumn<String, byte[]>> colList = new ArrayList<HColumn<String, byte[]>>();
+        private final Map<String, HColumn<String, byte[]>> colMap = new HashMap<String, HColumn<String, byte[]>>();
+
+        private void add(HColumn<String, byte[]> col) {
+            colList.add(col);
+            colMap.put(col.getName(), col);
+        }
+
+        @Override
+        public List<HColumn<String, byte[]>> getColumns() {
+            return colList;
+        }
+
+        @Override
+        public HColumn<String, byte[]> getColumnByName(String colName) {
+            return colMap.get(colName);
+        }
+    }
+
+    /**
+     * Create {@link CassQMsg} from a "waiting" or "pending" column. The
+     * descriptor is decoded from the column value if inline, otherwise loaded
+     * from its own row.
+     */
+    private CassQMsg createQMsgFromColumn(PipeDescriptorImpl pipeDesc, UUID msgId, byte[] colValue) {
+        if (InlinePayloadCodec.isInline(colValue)) {
+            return new CassQMsg(pipeDesc, msgId, InlinePayloadCodec.decode(msgId, colValue), true);
+        }
+        else {
+            return new CassQMsg(pipeDesc, msgId, getMsgDescriptor(msgId));
+        }
+    }
+
     public List<CassQMsg> getOldestMsgsFromQueue(final String qName, final int maxMsgs) {
         final LinkedList<CassQMsg> result = new LinkedList<CassQMsg>();
         final String colFamName = formatWaitingColFamName(qName);
 
-        ColumnIterator rawMsgColIter = new ColumnIterator();
-        rawMsgColIter.doIt(cluster, QUEUE_KEYSPACE_NAME, QUEUE_PIPE_CNXN_COLFAM, qName.getBytes(),
-                new ColumnIterator.ColumnOperator() {
-                    @Override
-                    public boolean execute(HColumn<byte[], byte[]> col) {
-                        UUID pipeId = UUIDSerializer.get().fromBytes(col.getName());
-                        PipeDescriptorImpl pipeDesc = getPipeDescriptor(pipeId);
-                        if (PipeStatus.ACTIVE.equals(pipeDesc.getPopStatus())) {
-                            logger.info("working on pipe descriptor : " + pipeId);
-                            result.addAll(getMsgsInPipe(qName, colFamName, pipeDesc, maxMsgs));
-                        }
-                        return maxMsgs > result.size();
-                    }
-                });
+        iteratePipes(formatPipeStatusIndexKey(qName, PDESC_COLNAME_POP_STATUS, PipeStatus.ACTIVE), new PipeOperator() {
+            @Override
+            public boolean execute(UUID pipeId, long createTimestamp, PipeDescriptorImpl pipeDesc) {
+                if (null != pipeDesc && PipeStatus.ACTIVE.equals(pipeDesc.getPopStatus())) {
+                    logger.info("working on pipe descriptor : " + pipeId);
+                    result.addAll(getMsgsInPipe(qName, colFamName, pipeDesc, maxMsgs));
+                }
+                return maxMsgs > result.size();
+            }
+        });
 
         return result;
     }
@@ -439,10 +1020,7 @@ public class QueueRepositoryImpl {
                     @Override
                     public boolean execute(HColumn<byte[], byte[]> col) {
                         UUID msgId = UuidGenerator.createInstance(col.getName());
-                        MessageDescriptor msgDesc = entityMgr.load(MessageDescriptor.class, msgId);
-
-                        CassQMsg qMsg = new CassQMsg(pipeDesc, msgId, msgDesc);
-                        result.add(qMsg);
+                        result.add(createQMsgFromColumn(pipeDesc, msgId, col.getValue()));
                         return maxMsgs > result.size();
                     }
                 });
@@ -451,24 +1029,331 @@ public class QueueRepositoryImpl {
     }
 
     /**
-     * Move msg from waiting pipe to pending pipe and set 'pop' timestamp for
-     * transaction timeout, if needed.
+     * Move msg from waiting pipe to pending pipe, set 'pop' timestamp for
+     * transaction timeout, if needed, and count the delivery. An inline
+     * message carries its payload, timestamps and delivery count into the
+     * pending column.
      * 
      * @param qMsg
      */
     public void moveMsgFromWaitingToPendingPipe(CassQMsg qMsg) {
+        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+        addMoveMsgFromWaitingToPendingPipe(m, qMsg, System.currentTimeMillis());
+        m.execute();
+    }
+
+    /**
+     * Move a batch of msgs, all from the same pipe, from waiting to pending,
+     * save the pipe's new pop count and refresh the popper's ownership of the
+     * pipe. Everything is written by one call to Cassandra. The pipe's waiting
+     * cursor is advanced past the moved msgs.
+     * 
+     * @param pipeDesc
+     *            pipe the msgs were popped from
+     * @param msgList
+     *            msgs to move
+     * @param popCount
+     *            new pop count of the pipe
+     * @param popOwnerId
+     *            owner of the pipe, or null to leave ownership as is
+     * @param popOwnTimestamp
+     *            new ownership timestamp, ignored if popOwnerId is null
+     */
+    public void moveMsgsFromWaitingToPendingPipe(PipeDescriptorImpl pipeDesc, List<CassQMsg> msgList, int popCount,
+            UUID popOwnerId, long popOwnTimestamp) {
+        long now = System.currentTimeMillis();
+        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+        for (CassQMsg qMsg : msgList) {
+            addMoveMsgFromWaitingToPendingPipe(m, qMsg, now);
+        }
+
+        byte[] pipeIdAsBytes = UUIDSerializer.get().toBytes(pipeDesc.getPipeId());
+        m.addInsertion(pipeIdAsBytes, PIPE_DESCRIPTOR_COLFAM, HFactory.createColumn(PDESC_COLNAME_POP_COUNT,
+                popCount, StringSerializer.get(), IntegerSerializer.get()));
+        if (null != popOwnerId) {
+            m.addInsertion(pipeIdAsBytes, PIPE_DESCRIPTOR_COLFAM, HFactory.createColumn(PDESC_COLNAME_POP_OWNER_ID,
+                    popOwnerId, StringSerializer.get(), UUIDSerializer.get()));
+            m.addInsertion(pipeIdAsBytes, PIPE_DESCRIPTOR_COLFAM, HFactory.createColumn(
+                    PDESC_COLNAME_POP_OWNER_TIMESTAMP, popOwnTimestamp, StringSerializer.get(), LongSerializer.get()));
+        }
+        m.execute();
+        popRoundTripCount.incrementAndGet();
+        popMsgCount.addAndGet(msgList.size());
+
+        if (!msgList.isEmpty()) {
+            pipeDesc.setWaitingCursor(msgList.get(msgList.size() - 1).getMsgId());
+        }
+    }
+
+    /**
+     * Move a popped msg from its "pending" pipe back to "waiting" in the given
+     * pipe, keeping its msg ID and stored descriptor. The payload is not
+     * copied unless it is inline, in which case it is already part of the
+     * column value. The "waiting" insert, clearing the pop timestamp, the
+     * "pending" delete and the target pipe's push count are written by one
+     * call to Cassandra. The target pipe may belong to another queue, as when
+     * moving a msg to its dead letter queue. The delivery count is kept.
+     * 
+     * @param qMsg
+     *            msg to move, must be in "pending"
+     * @param toPipeDesc
+     *            pipe to receive the msg, room must have been reserved in
+     *            its push count
+     * @param savePushCount
+     *            false to leave the target pipe's stored push count as is
+     * @return the msg as it now exists in toPipeDesc
+     */
+    public CassQMsg moveMsgFromPendingToWaitingPipe(CassQMsg qMsg, PipeDescriptorImpl toPipeDesc,
+            boolean savePushCount) {
+        PipeDescriptorImpl fromPipeDesc = qMsg.getPipeDescriptor();
+        MessageDescriptor msgDesc = qMsg.getMsgDesc();
+        msgDesc.setPopTimestamp(null);
+
+        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+        byte[] toPipeIdAsBytes = UUIDSerializer.get().toBytes(toPipeDesc.getPipeId());
+        if (qMsg.isPayloadInline()) {
+            m.addInsertion(toPipeIdAsBytes, formatWaitingColFamName(toPipeDesc.getQName()), HFactory.createColumn(
+                    qMsg.getMsgId(), InlinePayloadCodec.encode(msgDesc), UUIDSerializer.get(),
+                    BytesArraySerializer.get()));
+        }
+        else {
+            m.addInsertion(toPipeIdAsBytes, formatWaitingColFamName(toPipeDesc.getQName()), HFactory.createColumn(
+                    qMsg.getMsgId(), HectorUtils.EMPTY_BYTES, UUIDSerializer.get(), BytesArraySerializer.get()));
+            m.addDeletion(UUIDSerializer.get().toBytes(qMsg.getMsgId()), MSG_DESCRIPTOR_COLFAM,
+                    MDESC_COLNAME_POP_TIMESTAMP, StringSerializer.get());
+        }
+        m.addDeletion(UUIDSerializer.get().toBytes(fromPipeDesc.getPipeId()),
+                formatPendingColFamName(fromPipeDesc.getQName()), qMsg.getMsgId(), UUIDSerializer.get());
+        if (savePushCount) {
+            addPushCountInsertion(m, toPipeDesc);
+        }
+        m.execute();
+        pushRoundTripCount.incrementAndGet();
+        pushMsgCount.incrementAndGet();
+
+        return new CassQMsg(toPipeDesc, qMsg.getMsgId(), msgDesc, qMsg.isPayloadInline());
+    }
+
+    /**
+     * Move a popped msg from its "pending" pipe into the queue's delay bucket
+     * due at bucketTimestamp. The msg keeps its ID and stored descriptor, and
+     * becomes poppable again once the bucket is promoted. The bucket is added
+     * to the bucket index in the same mutation.
+     * 
+     * @param qMsg
+     *            msg to move, must be in "pending"
+     * @param bucketTimestamp
+     *            time, in millis, the bucket is due
+     * @see #moveMsgsFromDelayedToWaitingPipe(UUID, List, PipeDescriptorImpl, boolean)
+     */
+    public void moveMsgFromPendingToDelayed(CassQMsg qMsg, long bucketTimestamp) {
         PipeDescriptorImpl pipeDesc = qMsg.getPipeDescriptor();
-        qMsg.getMsgDesc().setPopTimestamp(System.currentTimeMillis());
-        String qName = qMsg.getPipeDescriptor().getQName();
-        Mutator<UUID> m = HFactory.createMutator(keyspace, UUIDSerializer.get());
-        m.addInsertion(pipeDesc.getPipeId(), formatPendingColFamName(qName), HFactory.createColumn(qMsg.getMsgId(),
-                HectorUtils.EMPTY_BYTES, UUIDSerializer.get(), BytesArraySerializer.get()));
-        m.addInsertion(qMsg.getMsgId(), MSG_DESCRIPTOR_COLFAM, HFactory.createColumn(MDESC_COLNAME_POP_TIMESTAMP, qMsg
-                .getMsgDesc().getPopTimestamp(), StringSerializer.get(), LongSerializer.get()));
-        m.addDeletion(pipeDesc.getPipeId(), formatWaitingColFamName(qName), qMsg.getMsgId(), UUIDSerializer.get());
+        String qName = pipeDesc.getQName();
+        MessageDescriptor msgDesc = qMsg.getMsgDesc();
+        msgDesc.setPopTimestamp(null);
+
+        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+        UUID bucketId = addDelayedBucketIndexInsertion(m, qName, bucketTimestamp, pipeDesc.getPriority());
+        if (qMsg.isPayloadInline()) {
+            m.addInsertion(UUIDSerializer.get().toBytes(bucketId), formatDelayedColFamName(qName), HFactory
+                    .createColumn(qMsg.getMsgId(), InlinePayloadCodec.encode(msgDesc), UUIDSerializer.get(),
+                            BytesArraySerializer.get()));
+        }
+        else {
+            m.addInsertion(UUIDSerializer.get().toBytes(bucketId), formatDelayedColFamName(qName), HFactory
+                    .createColumn(qMsg.getMsgId(), HectorUtils.EMPTY_BYTES, UUIDSerializer.get(),
+                            BytesArraySerializer.get()));
+            m.addDeletion(UUIDSerializer.get().toBytes(qMsg.getMsgId()), MSG_DESCRIPTOR_COLFAM,
+                    MDESC_COLNAME_POP_TIMESTAMP, StringSerializer.get());
+        }
+        m.addDeletion(UUIDSerializer.get().toBytes(pipeDesc.getPipeId()), formatPendingColFamName(qName),
+                qMsg.getMsgId(), UUIDSerializer.get());
         m.execute();
     }
 
+    /**
+     * Insert a new msg into the queue's delay bucket due at bucketTimestamp.
+     * The msg descriptor, the "delayed" column and the bucket index entry are
+     * written by one call to Cassandra.
+     * 
+     * @param qName
+     * @param msgId
+     * @param msgData
+     * @param bucketTimestamp
+     *            time, in millis, the bucket is due
+     * @param maxInlinePayloadSize
+     *            payloads up to this size are stored in the column value. 0
+     *            disables
+     * @return the msg, with no pipe
+     */
+    public CassQMsg insertDelayedMsg(String qName, UUID msgId, byte[] msgData, long bucketTimestamp,
+            int maxInlinePayloadSize) {
+        MessageDescriptor msgDesc = new MessageDescriptor();
+        msgDesc.setMsgId(msgId);
+        msgDesc.setPayload(msgData);
+        msgDesc.setCreateTimestamp(System.currentTimeMillis());
+
+        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+        UUID bucketId = addDelayedBucketIndexInsertion(m, qName, bucketTimestamp, 0);
+        boolean inline = 0 < maxInlinePayloadSize && msgData.length <= maxInlinePayloadSize;
+        byte[] colValue;
+        if (inline) {
+            colValue = InlinePayloadCodec.encode(msgDesc);
+        }
+        else {
+            colValue = HectorUtils.EMPTY_BYTES;
+            entityMgr.persist(Collections.singletonList(msgDesc), m);
+        }
+        m.addInsertion(UUIDSerializer.get().toBytes(bucketId), formatDelayedColFamName(qName), HFactory
+                .createColumn(msgId, colValue, UUIDSerializer.get(), BytesArraySerializer.get()));
+        m.execute();
+        pushRoundTripCount.incrementAndGet();
+        pushMsgCount.incrementAndGet();
+
+        return new CassQMsg(null, msgId, msgDesc, inline);
+    }
+
+    private UUID addDelayedBucketIndexInsertion(Mutator<byte[]> m, String qName, long bucketTimestamp,
+            int priority) {
+        UUID bucketId = UuidGenerator.createTimeUuid(bucketTimestamp, priority);
+        m.addInsertion(StringSerializer.get().toBytes(formatDelayedBucketIndexKey(qName)), QUEUE_PIPE_CNXN_COLFAM,
+                HFactory.createColumn(bucketId, bucketTimestamp, UUIDSerializer.get(), LongSerializer.get()));
+        return bucketId;
+    }
+
+    /**
+     * IDs of the queue's delay buckets due at or before the given time,
+     * oldest first. Buckets of a priority above 0 due exactly at now are left
+     * for the next call.
+     * 
+     * @param qName
+     * @param now
+     *            millis
+     * @param maxBuckets
+     * @return
+     */
+    public List<UUID> getDueDelayedBuckets(String qName, long now, int maxBuckets) {
+        SliceQuery<String, UUID, byte[]> q =
+                HFactory.createSliceQuery(keyspace, StringSerializer.get(), UUIDSerializer.get(),
+                        BytesArraySerializer.get());
+        q.setColumnFamily(QUEUE_PIPE_CNXN_COLFAM);
+        q.setKey(formatDelayedBucketIndexKey(qName));
+        q.setRange(null, UuidGenerator.createMinTimeUuid(now), false, maxBuckets);
+
+        List<HColumn<UUID, byte[]>> colList = q.execute().get().getColumns();
+        List<UUID> bucketIdList = new ArrayList<UUID>(colList.size());
+        for (HColumn<UUID, byte[]> col : colList) {
+            bucketIdList.add(col.getName());
+        }
+        return bucketIdList;
+    }
+
+    /**
+     * Read the oldest msgs of a delay bucket with one slice, plus one multiget
+     * for descriptors not stored inline. The returned msgs have no pipe.
+     * 
+     * @param qName
+     * @param bucketId
+     * @param maxMsgs
+     * @return
+     */
+    public List<CassQMsg> getDelayedMsgs(String qName, UUID bucketId, int maxMsgs) {
+        SliceQuery<UUID, UUID, byte[]> q =
+                HFactory.createSliceQuery(keyspace, UUIDSerializer.get(), UUIDSerializer.get(),
+                        BytesArraySerializer.get());
+        q.setColumnFamily(formatDelayedColFamName(qName));
+        q.setKey(bucketId);
+        q.setRange(null, null, false, maxMsgs);
+        return createQMsgsFromColumns(null, q.execute().get().getColumns(), null);
+    }
+
+    /**
+     * Move a batch of msgs from a delay bucket to "waiting" in the given pipe
+     * and save the pipe's push count, all with one mutation. Room must have
+     * been reserved in the pipe's push count.
+     * 
+     * @param bucketId
+     *            bucket the msgs were read from
+     * @param msgList
+     *            msgs returned by {@link #getDelayedMsgs(String, UUID, int)}
+     * @param toPipeDesc
+     *            pipe to receive the msgs
+     * @param savePushCount
+     *            false to leave the target pipe's stored push count as is
+     * @return the msgs as they now exist in toPipeDesc
+     */
+    public List<CassQMsg> moveMsgsFromDelayedToWaitingPipe(UUID bucketId, List<CassQMsg> msgList,
+            PipeDescriptorImpl toPipeDesc, boolean savePushCount) {
+        String qName = toPipeDesc.getQName();
+        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+        byte[] toPipeIdAsBytes = UUIDSerializer.get().toBytes(toPipeDesc.getPipeId());
+        byte[] bucketIdAsBytes = UUIDSerializer.get().toBytes(bucketId);
+        List<CassQMsg> qMsgList = new ArrayList<CassQMsg>(msgList.size());
+        for (CassQMsg qMsg : msgList) {
+            byte[] colValue =
+                    qMsg.isPayloadInline() ? InlinePayloadCodec.encode(qMsg.getMsgDesc()) : HectorUtils.EMPTY_BYTES;
+            m.addInsertion(toPipeIdAsBytes, formatWaitingColFamName(qName), HFactory.createColumn(qMsg.getMsgId(),
+                    colValue, UUIDSerializer.get(), BytesArraySerializer.get()));
+            m.addDeletion(bucketIdAsBytes, formatDelayedColFamName(qName), qMsg.getMsgId(), UUIDSerializer.get());
+            qMsgList.add(new CassQMsg(toPipeDesc, qMsg.getMsgId(), qMsg.getMsgDesc(), qMsg.isPayloadInline()));
+        }
+        if (savePushCount) {
+            addPushCountInsertion(m, toPipeDesc);
+        }
+        m.execute();
+        pushRoundTripCount.incrementAndGet();
+        pushMsgCount.addAndGet(qMsgList.size());
+        return qMsgList;
+    }
+
+    /**
+     * Remove a delay bucket's index entry if a fresh read shows the bucket is
+     * empty. The bucket row itself is never deleted, moved msgs are deleted
+     * column by column, so a row tombstone cannot shadow a msg added late.
+     * The deletion uses a clock taken before the read, and every delayed msg
+     * is inserted with its index entry, so a msg added after the read also
+     * brings back the entry.
+     * 
+     * @param qName
+     * @param bucketId
+     * @return true if the entry was removed, false if the bucket still has
+     *         msgs
+     */
+    public boolean removeDelayedBucketIfEmpty(String qName, UUID bucketId) {
+        long clock = keyspace.createClock();
+        if (!getDelayedMsgs(qName, bucketId, 1).isEmpty()) {
+            return false;
+        }
+        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+        m.addDeletion(StringSerializer.get().toBytes(formatDelayedBucketIndexKey(qName)), QUEUE_PIPE_CNXN_COLFAM,
+                bucketId, UUIDSerializer.get(), clock);
+        m.execute();
+        return true;
+    }
+
+    private void addMoveMsgFromWaitingToPendingPipe(Mutator<byte[]> m, CassQMsg qMsg, long popTimestamp) {
+        PipeDescriptorImpl pipeDesc = qMsg.getPipeDescriptor();
+        qMsg.getMsgDesc().setPopTimestamp(popTimestamp);
+        qMsg.getMsgDesc().setDeliveryCount(qMsg.getMsgDesc().getDeliveryCount() + 1);
+        String qName = pipeDesc.getQName();
+        byte[] pipeIdAsBytes = UUIDSerializer.get().toBytes(pipeDesc.getPipeId());
+        if (qMsg.isPayloadInline()) {
+            m.addInsertion(pipeIdAsBytes, formatPendingColFamName(qName), HFactory.createColumn(qMsg.getMsgId(),
+                    InlinePayloadCodec.encode(qMsg.getMsgDesc()), UUIDSerializer.get(), BytesArraySerializer.get()));
+        }
+        else {
+            m.addInsertion(pipeIdAsBytes, formatPendingColFamName(qName), HFactory.createColumn(qMsg.getMsgId(),
+                    HectorUtils.EMPTY_BYTES, UUIDSerializer.get(), BytesArraySerializer.get()));
+            m.addInsertion(UUIDSerializer.get().toBytes(qMsg.getMsgId()), MSG_DESCRIPTOR_COLFAM, HFactory
+                    .createColumn(MDESC_COLNAME_POP_TIMESTAMP, popTimestamp, StringSerializer.get(),
+                            LongSerializer.get()));
+            m.addInsertion(UUIDSerializer.get().toBytes(qMsg.getMsgId()), MSG_DESCRIPTOR_COLFAM, HFactory
+                    .createColumn(MDESC_COLNAME_DELIVERY_COUNT, qMsg.getMsgDesc().getDeliveryCount(),
+                            StringSerializer.get(), IntegerSerializer.get()));
+        }
+        m.addDeletion(pipeIdAsBytes, formatWaitingColFamName(qName), qMsg.getMsgId(), UUIDSerializer.get());
+    }
+
     public void truncateQueuePipeCnxn(CassQueueImpl cq) {
         final Mutator<UUID> m = HFactory.createMutator(keyspace, UUIDSerializer.get());
 
@@ -509,6 +1394,7 @@ public class QueueRepositoryImpl {
                     cassandra.set_keyspace(QUEUE_KEYSPACE_NAME);
                     cassandra.truncate(formatWaitingColFamName(cq.getName()));
                     cassandra.truncate(formatPendingColFamName(cq.getName()));
+                    cassandra.truncate(formatDelayedColFamName(cq.getName()));
                     return null;
                 }
                 catch (Throwable e) {
@@ -523,11 +1409,26 @@ public class QueueRepositoryImpl {
     public void dropQueue(CassQueueImpl cq) {
         cluster.dropColumnFamily(QUEUE_KEYSPACE_NAME, formatWaitingColFamName(cq.getName()));
         cluster.dropColumnFamily(QUEUE_KEYSPACE_NAME, formatPendingColFamName(cq.getName()));
+        cluster.dropColumnFamily(QUEUE_KEYSPACE_NAME, formatDelayedColFamName(cq.getName()));
 
         truncateQueuePipeCnxn(cq);
 
         Mutator<String> m = HFactory.createMutator(keyspace, StringSerializer.get());
         m.addDeletion(cq.getName(), QUEUE_PIPE_CNXN_COLFAM, null, UUIDSerializer.get());
+        for (PipeStatus st : PipeStatus.values()) {
+            m.addDeletion(formatPipeStatusIndexKey(cq.getName(), PDESC_COLNAME_PUSH_STATUS, st),
+                    QUEUE_PIPE_CNXN_COLFAM, null, UUIDSerializer.get());
+            m.addDeletion(formatPipeStatusIndexKey(cq.getName(), PDESC_COLNAME_POP_STATUS, st),
+                    QUEUE_PIPE_CNXN_COLFAM, null, UUIDSerializer.get());
+        }
+        // lanes the queue was created with, or was given since by this instance
+        QueueDescriptor qDesc = getQueueDescriptor(cq.getName());
+        int numPriorities = Math.max(null != qDesc ? qDesc.getNumPriorities() : 0, cq.getNumPriorities());
+        for (int priority = 1; priority < numPriorities; priority++) {
+            m.addDeletion(formatPipeStatusIndexKey(cq.getName(), PDESC_COLNAME_POP_STATUS, PipeStatus.ACTIVE,
+                    priority), QUEUE_PIPE_CNXN_COLFAM, null, UUIDSerializer.get());
+        }
+        m.addDeletion(formatDelayedBucketIndexKey(cq.getName()), QUEUE_PIPE_CNXN_COLFAM, null, UUIDSerializer.get());
         m.addDeletion(cq.getName(), QUEUE_STATS_COLFAM, null, UUIDSerializer.get());
         m.execute();
     }
@@ -545,8 +1446,7 @@ public class QueueRepositoryImpl {
             return null;
         }
 
-        MessageDescriptor msgDesc = entityMgr.load(MessageDescriptor.class, msgId);
-        return new CassQMsg(pipeDesc, msgId, msgDesc);
+        return createQMsgFromColumn(pipeDesc, msgId, result.get().getValue());
     }
 
     public PipeDescriptorImpl createPipeDescriptor(String qName, UUID pipeId) {
@@ -554,12 +1454,56 @@ public class QueueRepositoryImpl {
     }
 
     public PipeDescriptorImpl createPipeDescriptor(String qName, UUID pipeId, long startTimestamp) {
+        return createPipeDescriptor(qName, pipeId, startTimestamp, 0);
+    }
+
+    /**
+     * Create a pipe for msgs of the given priority. The pipe is indexed as
+     * pop active under that priority.
+     * 
+     * @param qName
+     * @param pipeId
+     * @param startTimestamp
+     * @param priority
+     * @return
+     */
+    public PipeDescriptorImpl createPipeDescriptor(String qName, UUID pipeId, long startTimestamp, int priority) {
+        PipeDescriptorImpl pipeDesc = newPipeDescriptor(qName, pipeId, startTimestamp, priority);
+        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+        addCreatePipeMutations(m, pipeDesc);
+        m.execute();
+        return pipeDesc;
+    }
+
+    /**
+     * Make a pipe descriptor without writing anything. The pipe is created
+     * by the first {@link #insertMsgs(PipeDescriptorImpl, List, List, int,
+     * boolean, boolean, PipeDescriptorImpl, PipeDescriptorImpl)} or
+     * {@link #switchPipes(PipeDescriptorImpl, PipeDescriptorImpl,
+     * PipeDescriptorImpl)} it is passed to, so poppers never see it empty.
+     * 
+     * @param qName
+     * @param pipeId
+     * @param startTimestamp
+     * @param priority
+     * @return
+     */
+    public PipeDescriptorImpl newPipeDescriptor(String qName, UUID pipeId, long startTimestamp, int priority) {
         PipeDescriptorImpl pipeDesc = pipeDescFactory.createInstance(qName, pipeId);
         pipeDesc.setPushStartTimestamp(startTimestamp);
+        pipeDesc.setPriority(priority);
+        return pipeDesc;
+    }
 
-        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+    private void addCreatePipeMutations(Mutator<byte[]> m, PipeDescriptorImpl pipeDesc) {
+        String qName = pipeDesc.getQName();
+        UUID pipeId = pipeDesc.getPipeId();
 
-        Set<HColumn<String, byte[]>> colSet = pipeDescFactory.createInstance(pipeDesc);
+        Set<HColumn<String, byte[]>> colSet;
+        synchronized (pipeDesc) {
+            colSet = pipeDescFactory.createInstance(pipeDesc);
+            pipeDesc.setSavedPushCount(pipeDesc.getPushCount());
+        }
         byte[] pipeIdAsBytes = UUIDSerializer.get().toBytes(pipeId);
         for (HColumn<String, byte[]> colDesc : colSet) {
             m.addInsertion(pipeIdAsBytes, PIPE_DESCRIPTOR_COLFAM, colDesc);
@@ -568,9 +1512,43 @@ public class QueueRepositoryImpl {
         HColumn<UUID, Long> colCnxn =
                 HFactory.createColumn(pipeId, System.currentTimeMillis(), UUIDSerializer.get(), LongSerializer.get());
         m.addInsertion(StringSerializer.get().toBytes(qName), QUEUE_PIPE_CNXN_COLFAM, colCnxn);
+        addPipeStatusIndexInsertion(m, qName, pipeId, pipeDesc.getPushStartTimestamp(), pipeDesc.getPriority(),
+                PDESC_COLNAME_PUSH_STATUS, pipeDesc.getPushStatus());
+        addPipeStatusIndexInsertion(m, qName, pipeId, pipeDesc.getPushStartTimestamp(), pipeDesc.getPriority(),
+                PDESC_COLNAME_POP_STATUS, pipeDesc.getPopStatus());
+    }
 
-        m.execute();
-        return pipeDesc;
+    /**
+     * Load pipe descriptors with a single multiget. Pipes without a
+     * descriptor are not included in the returned map.
+     * 
+     * @param pipeIdList
+     * @return
+     */
+    public Map<UUID, PipeDescriptorImpl> getPipeDescriptors(List<UUID> pipeIdList) {
+        Map<UUID, PipeDescriptorImpl> pipeDescMap = new HashMap<UUID, PipeDescriptorImpl>();
+        if (pipeIdList.isEmpty()) {
+            return pipeDescMap;
+        }
+
+        MultigetSliceQuery<UUID, String, byte[]> q =
+                HFactory.createMultigetSliceQuery(keyspace, UUIDSerializer.get(), StringSerializer.get(),
+                        BytesArraySerializer.get());
+        q.setColumnFamily(PIPE_DESCRIPTOR_COLFAM);
+        q.setKeys(pipeIdList);
+        q.setRange(null, null, false, MAX_PIPE_DESCRIPTOR_COLUMNS);
+        Rows<UUID, String, byte[]> rows = q.execute().get();
+
+        for (UUID pipeId : pipeIdList) {
+            Row<UUID, String, byte[]> row = rows.getByKey(pipeId);
+            if (null != row) {
+                PipeDescriptorImpl pipeDesc = pipeDescFactory.createInstance(pipeId, row.getColumnSlice());
+                if (null != pipeDesc) {
+                    pipeDescMap.put(pipeId, pipeDesc);
+                }
+            }
+        }
+        return pipeDescMap;
     }
 
     public PipeDescriptorImpl getPipeDescriptor(UUID pipeId) {
@@ -590,28 +1568,24 @@ public class QueueRepositoryImpl {
         countQuery.setColumnFamily(colFamName);
         countQuery.setRange(new byte[] {}, new byte[] {}, maxPageSize);
 
-        ColumnIterator rawMsgColIter = new ColumnIterator();
-        rawMsgColIter.doIt(cluster, QUEUE_KEYSPACE_NAME, QUEUE_PIPE_CNXN_COLFAM, qName.getBytes(),
-                new ColumnIterator.ColumnOperator() {
-                    @Override
-                    public boolean execute(HColumn<byte[], byte[]> col) {
-                        UUID pipeId = UUIDSerializer.get().fromBytes(col.getName());
-                        PipeDescriptorImpl pipeDesc = getPipeDescriptor(pipeId);
-                        if (null == pipeDesc) {
-                            logger.debug("pipeDesc is null : {}", pipeId);
-                            return true;
-                        }
-                        logger.info("working on pipe descriptor : " + pipeDesc.toString());
-                        result.addStatus(pipeDesc.getPushStatus(), pipeDesc.getPopStatus());
+        iteratePipes(qName, new PipeOperator() {
+            @Override
+            public boolean execute(UUID pipeId, long createTimestamp, PipeDescriptorImpl pipeDesc) {
+                if (null == pipeDesc) {
+                    logger.debug("pipeDesc is null : {}", pipeId);
+                    return true;
+                }
+                logger.info("working on pipe descriptor : " + pipeDesc.toString());
+                result.addStatus(pipeDesc.getPushStatus(), pipeDesc.getPopStatus());
 
-                        int msgCount = countQuery.setKey(col.getName()).execute().get();
+                int msgCount = countQuery.setKey(UUIDSerializer.get().toBytes(pipeId)).execute().get();
 
-                        result.totalMsgCount += msgCount;
-                        logger.info(result.numPipeDescriptors + " : pushStatus = " + pipeDesc.getPushStatus()
-                                + ", popStatus = " + pipeDesc.getPopStatus() + ", msgCount = " + msgCount);
-                        return true;
-                    }
-                });
+                result.totalMsgCount += msgCount;
+                logger.info(result.numPipeDescriptors + " : pushStatus = " + pipeDesc.getPushStatus()
+                        + ", popStatus = " + pipeDesc.getPopStatus() + ", msgCount = " + msgCount);
+                return true;
+            }
+        });
 
         return result;
     }
@@ -713,6 +1687,37 @@ public class QueueRepositoryImpl {
         return qName + PENDING_COLFAM_SUFFIX;
     }
 
+    public static String formatDelayedColFamName(String qName) {
+        return qName + DELAYED_COLFAM_SUFFIX;
+    }
+
+    /**
+     * Row key, in {@link #QUEUE_PIPE_CNXN_COLFAM}, of the index of the queue's
+     * delay buckets holding msgs. Columns are bucket IDs, see
+     * {@link UuidGenerator#createTimeUuid(long, int)}, so they sort by due
+     * time. Each priority has its own buckets, the bucket ID's node is the
+     * priority of its msgs, see {@link #getDelayedBucketPriority(UUID)}.
+     * 
+     * @param qName
+     * @return
+     */
+    public static String formatDelayedBucketIndexKey(String qName) {
+        return qName + ":delayedBuckets";
+    }
+
+    /**
+     * @param bucketId
+     *            from {@link #getDueDelayedBuckets(String, long, int)}
+     * @return priority of the msgs in the delay bucket
+     */
+    public static int getDelayedBucketPriority(UUID bucketId) {
+        return UuidGenerator.getNode(bucketId);
+    }
+
+    public static String formatDeadLetterQueueName(String qName) {
+        return qName + DEAD_LETTER_QUEUE_SUFFIX;
+    }
+
     public CountResult getCountOfWaitingMsgs(String qName, int maxMsgCount) {
         return getCountOfMsgsAndStatus(qName, formatWaitingColFamName(qName), maxMsgCount);
     }
@@ -743,8 +1748,58 @@ public class QueueRepositoryImpl {
         return getOldestMsgsFromPipe(formatPendingColFamName(pipeDesc.getQName()), pipeDesc, maxMsgs);
     }
 
+    /**
+     * Read the oldest "waiting" msgs of the pipe. If the pipe descriptor has a
+     * waiting cursor the slice starts after it. Msgs pushed concurrently can
+     * land behind the cursor, so the pipe is only reported empty after a
+     * slice from the head of the row.
+     * 
+     * @param pipeDesc
+     * @param maxMsgs
+     * @return
+     */
     public List<CassQMsg> getWaitingMessagesFromPipe(PipeDescriptorImpl pipeDesc, int maxMsgs) {
-        return getOldestMsgsFromPipe(formatWaitingColFamName(pipeDesc.getQName()), pipeDesc, maxMsgs);
+        String colFamName = formatWaitingColFamName(pipeDesc.getQName());
+        UUID cursor = pipeDesc.getWaitingCursor();
+        List<CassQMsg> msgList = getOldestMsgsFromPipe(colFamName, pipeDesc, maxMsgs, cursor, popRoundTripCount);
+        if (msgList.isEmpty() && null != cursor) {
+            pipeDesc.setWaitingCursor(null);
+            msgList = getOldestMsgsFromPipe(colFamName, pipeDesc, maxMsgs, null, popRoundTripCount);
+        }
+        return msgList;
+    }
+
+    /**
+     * Read up to maxMsgs "waiting" msgs of the pipe that follow the given msg.
+     * Unlike {@link #getWaitingMessagesFromPipe(PipeDescriptorImpl, int)} an
+     * empty result does not mean the pipe is empty.
+     * 
+     * @param pipeDesc
+     * @param startAfterMsgId
+     *            msg to start after, or null to start at the head of the row
+     * @param maxMsgs
+     * @return
+     */
+    public List<CassQMsg> getWaitingMessagesFromPipeAfter(PipeDescriptorImpl pipeDesc, UUID startAfterMsgId,
+            int maxMsgs) {
+        return getOldestMsgsFromPipe(formatWaitingColFamName(pipeDesc.getQName()), pipeDesc, maxMsgs,
+                startAfterMsgId, popRoundTripCount);
+    }
+
+    /**
+     * Check if the pipe has any "waiting" msgs, reading a single column name.
+     * 
+     * @param pipeDesc
+     * @return
+     */
+    public boolean hasWaitingMsgs(PipeDescriptorImpl pipeDesc) {
+        SliceQuery<UUID, UUID, byte[]> q =
+                HFactory.createSliceQuery(keyspace, UUIDSerializer.get(), UUIDSerializer.get(),
+                        BytesArraySerializer.get());
+        q.setColumnFamily(formatWaitingColFamName(pipeDesc.getQName()));
+        q.setKey(pipeDesc.getPipeId());
+        q.setRange(null, null, false, 1);
+        return !q.execute().get().getColumns().isEmpty();
     }
 
     public void removeMsgFromPendingPipe(CassQMsg qMsg) {
@@ -752,6 +1807,26 @@ public class QueueRepositoryImpl {
         removeMsgFromPipe(formatPendingColFamName(pipeDesc.getQName()), pipeDesc, qMsg);
     }
 
+    /**
+     * Remove a batch of msgs from their "pending" pipes with one mutation. The
+     * msgs may come from different pipes.
+     * 
+     * @param msgList
+     */
+    public void removeMsgsFromPendingPipe(Collection<CassQMsg> msgList) {
+        if (msgList.isEmpty()) {
+            return;
+        }
+
+        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+        for (CassQMsg qMsg : msgList) {
+            PipeDescriptorImpl pipeDesc = qMsg.getPipeDescriptor();
+            m.addDeletion(UUIDSerializer.get().toBytes(pipeDesc.getPipeId()),
+                    formatPendingColFamName(pipeDesc.getQName()), qMsg.getMsgId(), UUIDSerializer.get());
+        }
+        m.execute();
+    }
+
     public void removeMsgFromWaitingPipe(CassQMsg qMsg) {
         PipeDescriptorImpl pipeDesc = qMsg.getPipeDescriptor();
         removeMsgFromPipe(formatWaitingColFamName(pipeDesc.getQName()), pipeDesc, qMsg);
@@ -809,20 +1884,16 @@ public class QueueRepositoryImpl {
         final QueueStats qStats = getQueueStats(qName);
 
         // count still in pipe counts
-        ColumnIterator rawMsgColIter = new ColumnIterator();
-        rawMsgColIter.doIt(cluster, QUEUE_KEYSPACE_NAME, QUEUE_PIPE_CNXN_COLFAM, qName.getBytes(),
-                new ColumnIterator.ColumnOperator() {
-                    @Override
-                    public boolean execute(HColumn<byte[], byte[]> col) {
-                        UUID pipeId = UUIDSerializer.get().fromBytes(col.getName());
-                        PipeDescriptorImpl pipeDesc = getPipeDescriptor(pipeId);
-                        if (null != pipeDesc) {
-                            qStats.incTotalPops(pipeDesc.getPopCount());
-                            qStats.incTotalPushes(pipeDesc.getPushCount());
-                        }
-                        return true;
-                    }
-                });
+        iteratePipes(qName, new PipeOperator() {
+            @Override
+            public boolean execute(UUID pipeId, long createTimestamp, PipeDescriptorImpl pipeDesc) {
+                if (null != pipeDesc) {
+                    qStats.incTotalPops(pipeDesc.getPopCount());
+                    qStats.incTotalPushes(pipeDesc.getPushCount());
+                }
+                return true;
+            }
+        });
 
         return qStats;
     }
@@ -832,13 +1903,29 @@ public class QueueRepositoryImpl {
     }
 
     public void removePipeDescriptor(PipeDescriptorImpl pipeDesc) {
-        removePipeDescriptor(pipeDesc.getQName(), pipeDesc.getPipeId());
+        removePipeDescriptor(pipeDesc.getQName(), pipeDesc.getPipeId(), pipeDesc.getPriority());
     }
 
     public void removePipeDescriptor(String qName, UUID pipeId) {
+        removePipeDescriptor(qName, pipeId, 0);
+    }
+
+    private void removePipeDescriptor(String qName, UUID pipeId, int priority) {
         Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
         m.addDeletion(UUIDSerializer.get().toBytes(pipeId), PIPE_DESCRIPTOR_COLFAM, null, BytesArraySerializer.get());
-        m.delete(StringSerializer.get().toBytes(qName), QUEUE_PIPE_CNXN_COLFAM, pipeId, UUIDSerializer.get());
+        m.addDeletion(StringSerializer.get().toBytes(qName), QUEUE_PIPE_CNXN_COLFAM, pipeId, UUIDSerializer.get());
+        for (PipeStatus st : PipeStatus.values()) {
+            m.addDeletion(
+                    StringSerializer.get().toBytes(formatPipeStatusIndexKey(qName, PDESC_COLNAME_PUSH_STATUS, st)),
+                    QUEUE_PIPE_CNXN_COLFAM, pipeId, UUIDSerializer.get());
+            m.addDeletion(
+                    StringSerializer.get().toBytes(formatPipeStatusIndexKey(qName, PDESC_COLNAME_POP_STATUS, st)),
+                    QUEUE_PIPE_CNXN_COLFAM, pipeId, UUIDSerializer.get());
+        }
+        if (0 != priority) {
+            m.addDeletion(StringSerializer.get().toBytes(formatPipeStatusIndexKey(qName, PDESC_COLNAME_POP_STATUS,
+                    PipeStatus.ACTIVE, priority)), QUEUE_PIPE_CNXN_COLFAM, pipeId, UUIDSerializer.get());
+        }
         m.execute();
     }
 
@@ -869,6 +1956,47 @@ public class QueueRepositoryImpl {
                     StringSerializer.get());
         }
         m.execute();
+        popRoundTripCount.incrementAndGet();
+    }
+
+    /**
+     * Return number of calls made to Cassandra to push messages, across all
+     * queues using this repository.
+     * 
+     * @return
+     */
+    public long getPushRoundTripCount() {
+        return pushRoundTripCount.get();
+    }
+
+    /**
+     * Return number of messages pushed, across all queues using this
+     * repository.
+     * 
+     * @return
+     */
+    public long getPushMsgCount() {
+        return pushMsgCount.get();
+    }
+
+    /**
+     * Return number of calls made to Cassandra to pop messages, across all
+     * queues using this repository. Picking a pipe is not included.
+     * 
+     * @return
+     */
+    public long getPopRoundTripCount() {
+        return popRoundTripCount.get();
+    }
+
+    /**
+     * Return number of messages popped, across all queues using this
+     * repository.
+     * 
+     * @return
+     */
+    public long getPopMsgCount() {
+        return popMsgCount.get();
     }
 
     public Keyspace getKeyspace() {
@@ -0,0 +1,200 @@
+package com.btoddb.cassandra.queue.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.btoddb.cassandra.queue.CassQueueException;
+
+/**
+ * Collects items submitted by any number of threads and hands them to
+ * {@link #flushBatch(List)} in batches. A batch is flushed when it reaches
+ * maxBatchSize items or maxBatchWait millis after its first item arrived,
+ * whichever comes first.
+ * <p/>
+ * The number of submitted but not yet flushed items is bounded by
+ * maxInFlight. {@link #submit(Object)} blocks when the limit is reached.
+ *
+ * @param <I>
+ *            type of submitted items
+ * @param <R>
+ *            type of the result returned for each item
+ */
+public abstract class BatchFlusher<I, R> implements Runnable {
+    private static Logger logger = LoggerFactory.getLogger(BatchFlusher.class);
+
+    private static final long IDLE_POLL_WAIT = 100; // millis
+
+    private final String name;
+    private final int maxBatchSize;
+    private final long maxBatchWait;
+    private final Semaphore inFlightSemaphore;
+    private final LinkedBlockingQueue<Entry<I, R>> entryQueue = new LinkedBlockingQueue<Entry<I, R>>();
+
+    private Thread theThread;
+    private volatile boolean stopProcessing = false;
+
+    public BatchFlusher(String name, int maxBatchSize, long maxBatchWait, int maxInFlight) {
+        this.name = name;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchWait = maxBatchWait;
+        this.inFlightSemaphore = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Write the batch of items. Must return one result per item, in the same
+     * order. If an exception is thrown every item in the batch fails with it.
+     *
+     * @param itemList
+     * @return
+     */
+    protected abstract List<R> flushBatch(List<I> itemList);
+
+    public void start() {
+        theThread = new Thread(this);
+        theThread.setDaemon(true);
+        theThread.setName(name);
+        theThread.start();
+    }
+
+    /**
+     * Queue an item for the next batch. Blocks if too many items are already
+     * waiting to be flushed.
+     *
+     * @param item
+     * @return future completed after the item's batch is flushed
+     */
+    public Future<R> submit(I item) {
+        if (stopProcessing) {
+            throw new IllegalStateException("cannot submit to " + name + " when shutdown in progress");
+        }
+
+        try {
+            inFlightSemaphore.acquire();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CassQueueException("interrupted while waiting for room in " + name, e);
+        }
+
+        FlushFuture<R> future = new FlushFuture<R>();
+        Entry<I, R> entry = new Entry<I, R>(item, future);
+        entryQueue.add(entry);
+
+        // shutdown may have drained the queue for the last time between the
+        // check above and the add. Whoever removes the entry from the queue
+        // completes it, so only fail it here if it is still there
+        if (stopProcessing && entryQueue.remove(entry)) {
+            inFlightSemaphore.release();
+            throw new IllegalStateException("cannot submit to " + name + " when shutdown in progress");
+        }
+        return future;
+    }
+
+    @Override
+    public void run() {
+        while (!stopProcessing || !entryQueue.isEmpty()) {
+            try {
+                Entry<I, R> first = entryQueue.poll(IDLE_POLL_WAIT, TimeUnit.MILLISECONDS);
+                if (null != first) {
+                    flush(collectBatch(first));
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.interrupted();
+                // nothing else to do
+            }
+        }
+    }
+
+    private List<Entry<I, R>> collectBatch(Entry<I, R> first) throws InterruptedException {
+        List<Entry<I, R>> batch = new ArrayList<Entry<I, R>>(maxBatchSize);
+        batch.add(first);
+
+        long deadline = System.currentTimeMillis() + maxBatchWait;
+        while (batch.size() < maxBatchSize) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (0 >= remaining) {
+                entryQueue.drainTo(batch, maxBatchSize - batch.size());
+                break;
+            }
+
+            Entry<I, R> entry = entryQueue.poll(remaining, TimeUnit.MILLISECONDS);
+            if (null == entry) {
+                break;
+            }
+            batch.add(entry);
+        }
+        return batch;
+    }
+
+    private void flush(List<Entry<I, R>> batch) {
+        try {
+            List<I> itemList = new ArrayList<I>(batch.size());
+            for (Entry<I, R> entry : batch) {
+                itemList.add(entry.item);
+            }
+
+            List<R> resultList = flushBatch(itemList);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future.complete(resultList.get(i));
+            }
+            logger.debug("{} : flushed batch of {} items", name, batch.size());
+        }
+        catch (Throwable e) {
+            logger.error(name + " : exception while flushing batch of " + batch.size() + " items", e);
+            for (Entry<I, R> entry : batch) {
+                entry.future.fail(e);
+            }
+        }
+        finally {
+            inFlightSemaphore.release(batch.size());
+        }
+    }
+
+    /**
+     * Flush everything already submitted and stop the flusher thread. Items
+     * submitted while shutting down fail with an {@link IllegalStateException}.
+     */
+    public void shutdownAndWait() {
+        stopProcessing = true;
+        if (null != theThread) {
+            while (theThread.isAlive()) {
+                try {
+                    theThread.join(100);
+                }
+                catch (InterruptedException e) {
+                    Thread.interrupted();
+                    // do nothing
+                }
+            }
+        }
+
+        // anything that slipped in after the thread exited
+        Entry<I, R> entry;
+        while (null != (entry = entryQueue.poll())) {
+            entry.future.fail(new IllegalStateException(name + " has been shutdown"));
+            inFlightSemaphore.release();
+        }
+    }
+
+    public int getNumWaiting() {
+        return entryQueue.size();
+    }
+
+    private static class Entry<I, R> {
+        final I item;
+        final FlushFuture<R> future;
+
+        Entry(I item, FlushFuture<R> future) {
+            this.item = item;
+            this.future = future;
+        }
+    }
+}
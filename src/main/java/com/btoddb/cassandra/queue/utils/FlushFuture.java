@@ -0,0 +1,66 @@
+package com.btoddb.cassandra.queue.utils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link Future} completed by a {@link BatchFlusher} once the batch containing
+ * its item has been written. Cannot be cancelled.
+ *
+ * @param <R>
+ *            result type
+ */
+public class FlushFuture<R> implements Future<R> {
+    private final CountDownLatch doneLatch = new CountDownLatch(1);
+    private volatile R result;
+    private volatile Throwable exception;
+
+    void complete(R result) {
+        this.result = result;
+        doneLatch.countDown();
+    }
+
+    void fail(Throwable exception) {
+        this.exception = exception;
+        doneLatch.countDown();
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return 0 == doneLatch.getCount();
+    }
+
+    @Override
+    public R get() throws InterruptedException, ExecutionException {
+        doneLatch.await();
+        return getResult();
+    }
+
+    @Override
+    public R get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!doneLatch.await(timeout, unit)) {
+            throw new TimeoutException("batch not flushed within " + timeout + " " + unit);
+        }
+        return getResult();
+    }
+
+    private R getResult() throws ExecutionException {
+        if (null != exception) {
+            throw new ExecutionException(exception);
+        }
+        return result;
+    }
+}
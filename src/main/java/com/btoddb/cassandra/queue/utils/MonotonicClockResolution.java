@@ -0,0 +1,18 @@
+package com.btoddb.cassandra.queue.utils;
+
+import me.prettyprint.hector.api.ClockResolution;
+
+/**
+ * Hector clock giving strictly increasing microsecond timestamps, see
+ * {@link UuidGenerator#generateMicros()}. Mutations made in quick succession
+ * by this JVM never share a timestamp, so a later write to a column always
+ * wins over an earlier one.
+ */
+public class MonotonicClockResolution implements ClockResolution {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public long createClock() {
+        return UuidGenerator.generateMicros();
+    }
+}
@@ -1,17 +1,118 @@
 package com.btoddb.cassandra.queue.utils;
 
+import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 import me.prettyprint.cassandra.serializers.UUIDSerializer;
 
-import org.apache.cassandra.utils.UUIDGen;
-
+/**
+ * Lock-free, per JVM source of type 1 (time based) UUIDs and microsecond
+ * mutation timestamps. Both are strictly increasing within the JVM, so no two
+ * callers ever get the same value even when called within the same
+ * millisecond. When more values are requested than the clock can provide, the
+ * generator runs slightly ahead of the wall clock and the clock catches up
+ * when the rate drops.
+ */
 public class UuidGenerator {
+    // 100ns intervals between the UUID epoch (1582-10-15) and the unix epoch
+    private static final long UUID_EPOCH_OFFSET = 0x01B21DD213814000L;
+
+    private static final AtomicLong lastUuidTime = new AtomicLong();
+    private static final AtomicLong lastMicros = new AtomicLong();
+    private static final long clockSeqAndNode = createClockSeqAndNode();
+
     public static UUID generateTimeUuid() {
-        return UUIDGen.makeType1UUIDFromHost(MyIp.get());
+        long time = nextUuidTime();
+        long msb = time << 32;
+        msb |= (time & 0xFFFF00000000L) >>> 16;
+        msb |= 0x1000L | ((time >>> 48) & 0x0FFFL);
+        return new UUID(msb, clockSeqAndNode);
+    }
+
+    /**
+     * Smallest type 1 UUID for the given time. The same time always gives the
+     * same UUID, in every JVM, so it can be used as a well known column name
+     * or row key that sorts by time.
+     *
+     * @param timeMillis
+     * @return
+     */
+    public static UUID createMinTimeUuid(long timeMillis) {
+        long time = timeMillis * 10000 + UUID_EPOCH_OFFSET;
+        long msb = time << 32;
+        msb |= (time & 0xFFFF00000000L) >>> 16;
+        msb |= 0x1000L | ((time >>> 48) & 0x0FFFL);
+        return new UUID(msb, 0x8000000000000000L);
+    }
+
+    /**
+     * Same as {@link #createMinTimeUuid(long)} but with node set to the given
+     * value, so a time can have several well known UUIDs. Node 0 gives the
+     * min time UUID.
+     *
+     * @param timeMillis
+     * @param node
+     * @return
+     */
+    public static UUID createTimeUuid(long timeMillis, int node) {
+        UUID uuid = createMinTimeUuid(timeMillis);
+        return new UUID(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits() | (node & 0xFFFFFFFFL));
+    }
+
+    /**
+     * @param uuid
+     *            made by {@link #createTimeUuid(long, int)}
+     * @return the node it was created with
+     */
+    public static int getNode(UUID uuid) {
+        return (int) uuid.getLeastSignificantBits();
+    }
+
+    /**
+     * Microseconds since the unix epoch, strictly increasing across calls.
+     * Used as the Hector clock for mutation timestamps.
+     *
+     * @return
+     */
+    public static long generateMicros() {
+        while (true) {
+            long now = System.currentTimeMillis() * 1000;
+            long last = lastMicros.get();
+            long next = now > last ? now : last + 1;
+            if (lastMicros.compareAndSet(last, next)) {
+                return next;
+            }
+        }
     }
 
     public static UUID createInstance(byte[] raw) {
         return UUIDSerializer.get().fromBytes(raw);
     }
+
+    private static long nextUuidTime() {
+        while (true) {
+            long now = System.currentTimeMillis() * 10000 + UUID_EPOCH_OFFSET;
+            long last = lastUuidTime.get();
+            long next = now > last ? now : last + 1;
+            if (lastUuidTime.compareAndSet(last, next)) {
+                return next;
+            }
+        }
+    }
+
+    private static long createClockSeqAndNode() {
+        Random rand = new Random();
+
+        // node is the host IP plus random bits so JVMs on the same host
+        // differ. multicast bit is set as the node is not a MAC address
+        long node = 0;
+        for (byte b : MyIp.get().getAddress()) {
+            node = (node << 8) | (b & 0xFF);
+        }
+        node = ((node & 0xFFFFFFFFL) | ((long) rand.nextInt(0x10000) << 32)) | 0x010000000000L;
+
+        long clockSeq = rand.nextInt(0x4000);
+        return 0x8000000000000000L | (clockSeq << 48) | node;
+    }
 }
@@ -0,0 +1,68 @@
+package com.btoddb.cassandra.queue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.btoddb.cassandra.queue.locks.LocalLockerImpl;
+
+public class CassQueueConsumerTest extends CassQueueTestBase {
+    private CassQueueFactoryImpl cqFactory;
+
+    @Test
+    public void testConsumeCommitAndRollback() throws Exception {
+        CassQueueImpl cq = cqFactory.createInstance("test_" + System.currentTimeMillis(), 60000, 10, 30000, false);
+        PusherImpl pusher = cq.createPusher();
+        int msgCount = 45;
+        for (int i = 0; i < msgCount; i++) {
+            pusher.push("data-" + i);
+        }
+
+        final Set<String> handledSet = Collections.synchronizedSet(new HashSet<String>());
+        final AtomicBoolean failedOnce = new AtomicBoolean();
+        CassQueueConsumer consumer = cq.createConsumer(new MessageHandler() {
+            @Override
+            public void handle(CassQMsg qMsg) throws Exception {
+                String data = new String(qMsg.getMsgDesc().getPayload());
+                if ("data-7".equals(data) && failedOnce.compareAndSet(false, true)) {
+                    throw new Exception("fail first time to force rollback");
+                }
+                handledSet.add(data);
+            }
+        });
+        consumer.setNumPoppers(2);
+        consumer.setNumHandlerThreads(4);
+        consumer.setMaxInFlight(8);
+        consumer.setPopWaitTimeout(200);
+        consumer.start();
+
+        long end = System.currentTimeMillis() + 30000;
+        while (handledSet.size() < msgCount && System.currentTimeMillis() < end) {
+            Thread.sleep(100);
+        }
+        consumer.shutdownAndWait();
+
+        assertEquals(msgCount, handledSet.size());
+        assertEquals(msgCount, consumer.getCommitCount());
+        assertEquals(1, consumer.getRollbackCount());
+        assertEquals(0, consumer.getFailureCount());
+        assertEquals(0, consumer.getNumInFlight());
+        assertNull("queue should be empty", cq.createPopper().pop());
+    }
+
+    // -------------------------
+
+    @Before
+    public void setupTest() throws Exception {
+        cqFactory =
+                new CassQueueFactoryImpl(qRepos, new LocalLockerImpl<QueueDescriptor>(),
+                        new LocalLockerImpl<QueueDescriptor>());
+    }
+}
@@ -3,19 +3,24 @@ package com.btoddb.cassandra.queue;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import com.btoddb.cassandra.queue.utils.UuidGenerator;
 import org.junit.Before;
 import org.junit.Test;
 
 import com.btoddb.cassandra.queue.locks.LocalLockerImpl;
+import com.btoddb.cassandra.queue.notify.LocalNotifierImpl;
 import com.btoddb.cassandra.queue.pipes.PipeDescriptorImpl;
 import com.btoddb.cassandra.queue.pipes.PipeStatus;
+import com.btoddb.cassandra.queue.repository.QueueRepositoryImpl;
 
 public class PopperImplTest extends CassQueueTestBase {
     private CassQueueFactoryImpl cqFactory;
@@ -155,6 +160,222 @@ public class PopperImplTest extends CassQueueTestBase {
         assertNull("pipe descriptor should have been removed from system", pipeDesc);
     }
 
+    @Test
+    public void testPopBatch() throws Exception {
+        CassQueueImpl cq = cqFactory.createInstance("test_" + System.currentTimeMillis(), 60000, 20, 30000, false);
+        PusherImpl pusher = cq.createPusher();
+        PopperImpl popper = cq.createPopper();
+        int msgCount = 15;
+        ArrayList<CassQMsg> pushList = new ArrayList<CassQMsg>(msgCount);
+        for (int i = 0; i < msgCount; i++) {
+            pushList.add(pusher.push("data-" + i));
+        }
+
+        List<CassQMsg> popList = popper.pop(10);
+        assertEquals(10, popList.size());
+        popList.addAll(popper.pop(10));
+        assertEquals(msgCount, popList.size());
+        assertEquals(0, popper.pop(10).size());
+
+        for (int i = 0; i < msgCount; i++) {
+            assertEquals("msgs should be popped in order", pushList.get(i), popList.get(i));
+            assertEquals("data-" + i, new String(popList.get(i).getMsgDesc().getPayload()));
+            assertNotNull(popList.get(i).getMsgDesc().getPopTimestamp());
+        }
+
+        PipeDescriptorImpl pipeDesc = qRepos.getPipeDescriptor(pushList.get(0).getPipeDescriptor().getPipeId());
+        assertNull("msgs should have been moved from waiting to pending", qRepos.getOldestMsgFromWaitingPipe(pipeDesc));
+        assertEquals(msgCount, qRepos.getPendingMessagesFromPipe(pipeDesc, msgCount + 1).size());
+        assertEquals(msgCount, pipeDesc.getPopCount());
+    }
+
+    @Test
+    public void testPopIsTwoRoundTrips() throws Exception {
+        CassQueueImpl cq =
+                cqFactory.createInstance("test_" + System.currentTimeMillis(), 60000, 20, 30000, 100, false);
+        PusherImpl pusher = cq.createPusher();
+        PopperImpl popper = cq.createPopper();
+        int msgCount = 5;
+        for (int i = 0; i < msgCount; i++) {
+            pusher.push("data-" + i);
+        }
+
+        // first pop picks and owns the pipe
+        CassQMsg qMsg = popper.pop();
+        assertNotNull(qMsg);
+
+        long startRoundTrips = qRepos.getPopRoundTripCount();
+        long startMsgs = qRepos.getPopMsgCount();
+        for (int i = 1; i < msgCount; i++) {
+            qMsg = popper.pop();
+            assertEquals("data-" + i, new String(qMsg.getMsgDesc().getPayload()));
+        }
+
+        assertEquals(msgCount - 1, qRepos.getPopMsgCount() - startMsgs);
+        assertEquals("each pop should be one slice and one mutation", 2 * (msgCount - 1),
+                qRepos.getPopRoundTripCount() - startRoundTrips);
+
+        PipeDescriptorImpl pipeDesc = qRepos.getPipeDescriptor(qMsg.getPipeDescriptor().getPipeId());
+        assertEquals(popper.getPopperId(), pipeDesc.getPopOwner());
+        assertEquals("owner timestamp should match the popper's lease", qMsg.getPipeDescriptor()
+                .getPopOwnTimestamp(), pipeDesc.getPopOwnTimestamp());
+        assertEquals(msgCount, pipeDesc.getPopCount());
+    }
+
+    @Test
+    public void testPopRenewsLeaseOnlyWhenRunningOut() throws Exception {
+        CassQueueImpl cq = cqFactory.createInstance("test_" + System.currentTimeMillis(), 60000, 20, 30000, false);
+        PusherImpl pusher = cq.createPusher();
+        for (int i = 0; i < 3; i++) {
+            pusher.push("data-" + i);
+        }
+
+        // plenty of lease left, pop must not rewrite the owner timestamp
+        cq.setPopOwnerLeaseRenewFraction(0);
+        PopperImpl popper = cq.createPopper();
+        CassQMsg qMsg = popper.pop();
+        UUID pipeId = qMsg.getPipeDescriptor().getPipeId();
+        long pickTimestamp = qRepos.getPipeDescriptor(pipeId).getPopOwnTimestamp();
+        Thread.sleep(20);
+        assertNotNull(popper.pop());
+        assertEquals(pickTimestamp, qRepos.getPipeDescriptor(pipeId).getPopOwnTimestamp().longValue());
+
+        // lease always running out, pop renews it
+        popper.getPipeMgr().setLeaseRenewFraction(1);
+        Thread.sleep(20);
+        assertNotNull(popper.pop());
+        assertTrue(pickTimestamp < qRepos.getPipeDescriptor(pipeId).getPopOwnTimestamp());
+        assertEquals(popper.getPopperId(), qRepos.getPipeDescriptor(pipeId).getPopOwner());
+    }
+
+    @Test
+    public void testPopWithPrefetch() throws Exception {
+        CassQueueImpl cq = cqFactory.createInstance("test_" + System.currentTimeMillis(), 60000, 50, 30000, false);
+        PusherImpl pusher = cq.createPusher();
+        int msgCount = 23;
+        List<CassQMsg> pushList = new ArrayList<CassQMsg>();
+        for (int i = 0; i < msgCount; i++) {
+            pushList.add(pusher.push("data-" + i));
+        }
+
+        PopperImpl popper = cq.createPopper();
+        popper.setPrefetchSize(5);
+        for (int i = 0; i < msgCount; i++) {
+            CassQMsg qMsg = popper.pop();
+            assertEquals("msgs should be popped in order", pushList.get(i), qMsg);
+            assertEquals("data-" + i, new String(qMsg.getMsgDesc().getPayload()));
+        }
+        assertNull(popper.pop());
+
+        PipeDescriptorImpl pipeDesc = qRepos.getPipeDescriptor(pushList.get(0).getPipeDescriptor().getPipeId());
+        assertNull(qRepos.getOldestMsgFromWaitingPipe(pipeDesc));
+        assertEquals(msgCount, qRepos.getPendingMessagesFromPipe(pipeDesc, msgCount + 1).size());
+        assertEquals(msgCount, pipeDesc.getPopCount());
+        popper.shutdownAndWait();
+    }
+
+    @Test
+    public void testPopWithTimeout() throws Exception {
+        final CassQueueImpl cq =
+                cqFactory.createInstance("test_" + System.currentTimeMillis(), 60000, 20, 30000, false);
+        PopperImpl popper = cq.createPopper();
+
+        long start = System.currentTimeMillis();
+        assertNull(popper.pop(300, TimeUnit.MILLISECONDS));
+        assertTrue("should have waited for the timeout", 300 <= System.currentTimeMillis() - start);
+
+        // a push from this JVM wakes the waiting popper
+        cq.setPopWaitMinBackoff(10000);
+        cq.setPopWaitMaxBackoff(10000);
+        Thread pushThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(1000);
+                }
+                catch (InterruptedException e) {
+                    // ignore
+                }
+                cq.createPusher().push("data-0");
+            }
+        });
+        pushThread.start();
+
+        start = System.currentTimeMillis();
+        CassQMsg qMsg = popper.pop(20, TimeUnit.SECONDS);
+        assertNotNull(qMsg);
+        assertEquals("data-0", new String(qMsg.getMsgDesc().getPayload()));
+        assertTrue("should have been woken by the push", 5000 > System.currentTimeMillis() - start);
+        pushThread.join();
+    }
+
+    @Test
+    public void testPopWokenByNotifier() throws Exception {
+        String qName = "test_" + System.currentTimeMillis();
+        LocalNotifierImpl<QueueDescriptor> notifier = new LocalNotifierImpl<QueueDescriptor>();
+
+        // separate queue instances standing in for separate JVMs
+        final CassQueueImpl pushCq =
+                new CassQueueFactoryImpl(qRepos, new LocalLockerImpl<QueueDescriptor>(),
+                        new LocalLockerImpl<QueueDescriptor>(), notifier).createInstance(qName, 60000, 20, 30000,
+                        false);
+        CassQueueImpl popCq =
+                new CassQueueFactoryImpl(qRepos, new LocalLockerImpl<QueueDescriptor>(),
+                        new LocalLockerImpl<QueueDescriptor>(), notifier).createInstance(qName, 60000, 20, 30000,
+                        false);
+        popCq.setPopWaitMinBackoff(10000);
+        popCq.setPopWaitMaxBackoff(10000);
+        PopperImpl popper = popCq.createPopper();
+
+        Thread pushThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(1000);
+                }
+                catch (InterruptedException e) {
+                    // ignore
+                }
+                pushCq.createPusher().push("data-0");
+            }
+        });
+        pushThread.start();
+
+        CassQMsg qMsg = popper.pop(20, TimeUnit.SECONDS);
+        assertNotNull(qMsg);
+        assertEquals("data-0", new String(qMsg.getMsgDesc().getPayload()));
+        assertEquals(1, notifier.getPublishCount());
+        assertEquals("popper's queue should have been notified", 1, notifier.getDeliverCount());
+        pushThread.join();
+    }
+
+    @Test
+    public void testBatchAndAsyncCommit() throws Exception {
+        CassQueueImpl cq = cqFactory.createInstance("test_" + System.currentTimeMillis(), 60000, 20, 30000, false);
+        PusherImpl pusher = cq.createPusher();
+        PopperImpl popper = cq.createPopper();
+        int msgCount = 10;
+        for (int i = 0; i < msgCount; i++) {
+            pusher.push("data-" + i);
+        }
+
+        List<CassQMsg> popList = popper.pop(msgCount);
+        assertEquals(msgCount, popList.size());
+        PipeDescriptorImpl pipeDesc = popList.get(0).getPipeDescriptor();
+
+        popper.commit(popList.subList(0, msgCount / 2));
+        assertEquals(msgCount / 2, qRepos.getPendingMessagesFromPipe(pipeDesc, msgCount + 1).size());
+
+        List<Future<Boolean>> futureList = new ArrayList<Future<Boolean>>();
+        for (CassQMsg qMsg : popList.subList(msgCount / 2, msgCount)) {
+            futureList.add(popper.commitAsync(qMsg));
+        }
+        for (Future<Boolean> future : futureList) {
+            assertTrue(future.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(0, qRepos.getPendingMessagesFromPipe(pipeDesc, msgCount + 1).size());
+    }
+
     @Test
     public void testNoPipes() throws Exception {
         CassQueueImpl cq = cqFactory.createInstance("test_" + System.currentTimeMillis(), 20000, 10, 30000, false);
@@ -256,6 +477,177 @@ public class PopperImplTest extends CassQueueTestBase {
         }
     }
 
+    @Test
+    public void testRollbackMovesMsgWithoutRepush() throws Exception {
+        CassQueueImpl cq = cqFactory.createInstance("test_" + System.currentTimeMillis(), 20000, 10, 30000, false);
+        cq.setMaxInlinePayloadSize(0);
+        PopperImpl popper = cq.createPopper();
+        PusherImpl pusher = cq.createPusher();
+        CassQMsg qPushedMsg = pusher.push("rollback-me");
+        CassQMsg qMsg = popper.pop();
+
+        long roundTrips = qRepos.getPushRoundTripCount();
+        CassQMsg qRollbackMsg = popper.rollback(qMsg);
+        assertEquals("rollback should be one round trip", roundTrips + 1, qRepos.getPushRoundTripCount());
+        assertEquals("msg ID should be kept", qPushedMsg.getMsgId(), qRollbackMsg.getMsgId());
+        assertEquals(0, qRepos.getPendingMessagesFromPipe(qMsg.getPipeDescriptor(), 10).size());
+
+        List<CassQMsg> waitingList = qRepos.getWaitingMessagesFromPipe(qRollbackMsg.getPipeDescriptor(), 10);
+        assertEquals(1, waitingList.size());
+        assertEquals(qPushedMsg.getMsgId(), waitingList.get(0).getMsgId());
+        assertNull("pop timestamp should be cleared", waitingList.get(0).getMsgDesc().getPopTimestamp());
+        assertEquals("rollback-me", new String(waitingList.get(0).getMsgDesc().getPayload()));
+
+        // need a new popper to select the rollback pipe
+        CassQMsg qPoppedAgain = cq.createPopper().pop();
+        assertEquals(qPushedMsg.getMsgId(), qPoppedAgain.getMsgId());
+    }
+
+    @Test
+    public void testRollbackToDeadLetterQueue() throws Exception {
+        for (int maxInlinePayloadSize : new int[] {0, 100}) {
+            CassQueueImpl cq =
+                    cqFactory.createInstance("test_" + System.currentTimeMillis() + "_" + maxInlinePayloadSize, 20000,
+                            10, 30000, maxInlinePayloadSize, false);
+            cq.setMaxDeliveries(2);
+            CassQMsg qPushedMsg = cq.createPusher().push("poison");
+
+            CassQMsg qMsg = cq.createPopper().pop();
+            assertEquals(1, qMsg.getMsgDesc().getDeliveryCount());
+            cq.rollback(qMsg);
+
+            // need a new popper to select the rollback pipe
+            qMsg = cq.createPopper().pop();
+            assertEquals(qPushedMsg.getMsgId(), qMsg.getMsgId());
+            assertEquals(2, qMsg.getMsgDesc().getDeliveryCount());
+            CassQMsg qDeadMsg = cq.rollback(qMsg);
+
+            assertEquals(1, cq.getDeadLetterCount());
+            assertEquals(1, cq.getRollbackCount().get());
+            assertEquals(QueueRepositoryImpl.formatDeadLetterQueueName(cq.getName()), qDeadMsg.getPipeDescriptor()
+                    .getQName());
+            assertNull("msg should not be rolled back again", cq.createPopper().pop());
+
+            CassQueueImpl dlq = cqFactory.createInstance(QueueRepositoryImpl.formatDeadLetterQueueName(cq.getName()));
+            CassQMsg qDlqMsg = dlq.createPopper().pop();
+            assertEquals(qPushedMsg.getMsgId(), qDlqMsg.getMsgId());
+            assertEquals("poison", new String(qDlqMsg.getMsgDesc().getPayload()));
+            dlq.shutdownAndWait();
+            cq.shutdownAndWait();
+        }
+    }
+
+    @Test
+    public void testRollbackToDeadLetterQueueKeepsPriority() throws Exception {
+        CassQueueImpl cq = cqFactory.createInstance("test_" + System.currentTimeMillis(), 20000, 10, 30000, false);
+        cq.setNumPriorities(2);
+        cq.setMaxDeliveries(1);
+        CassQMsg qPushedMsg = cq.createPusher().push("poison", 1);
+
+        CassQMsg qDeadMsg = cq.rollback(cq.createPopper().pop());
+        assertEquals(1, cq.getDeadLetterCount());
+        assertEquals(1, qDeadMsg.getPipeDescriptor().getPriority());
+
+        CassQueueImpl dlq = cqFactory.createInstance(QueueRepositoryImpl.formatDeadLetterQueueName(cq.getName()));
+        assertEquals(2, dlq.getNumPriorities());
+        CassQMsg qDlqMsg = dlq.createPopper().pop();
+        assertEquals(qPushedMsg.getMsgId(), qDlqMsg.getMsgId());
+        dlq.shutdownAndWait();
+        cq.shutdownAndWait();
+    }
+
+    @Test
+    public void testRollbackWithDelay() throws Exception {
+        CassQueueImpl cq = cqFactory.createInstance("test_" + System.currentTimeMillis(), 20000, 10, 30000, false);
+        cq.setRollbackDelay(500);
+        cq.setMaxRollbackDelay(1500);
+        cq.setDelayBucketSize(100);
+        assertEquals(500, cq.calculateRollbackDelay(1));
+        assertEquals(1000, cq.calculateRollbackDelay(2));
+        assertEquals(1500, cq.calculateRollbackDelay(3));
+        assertEquals(1500, cq.calculateRollbackDelay(100));
+
+        CassQMsg qPushedMsg = cq.createPusher().push("delay-me");
+        CassQMsg qMsg = cq.createPopper().pop();
+        long rollbackTime = System.currentTimeMillis();
+        assertNull("delayed msg should not be returned", cq.rollback(qMsg));
+        assertEquals(0, qRepos.getPendingMessagesFromPipe(qMsg.getPipeDescriptor(), 10).size());
+        assertNull("msg should be held back", cq.createPopper().pop());
+
+        CassQMsg qDelayedMsg = null;
+        long end = System.currentTimeMillis() + 10000;
+        while (null == qDelayedMsg && System.currentTimeMillis() < end) {
+            Thread.sleep(100);
+            cq.forcePipeReaperWakeUp();
+            qDelayedMsg = cq.createPopper().pop();
+        }
+        assertNotNull("msg should be promoted after delay", qDelayedMsg);
+        assertTrue("msg promoted too early", System.currentTimeMillis() - rollbackTime >= 500);
+        assertEquals(qPushedMsg.getMsgId(), qDelayedMsg.getMsgId());
+        assertEquals("delay-me", new String(qDelayedMsg.getMsgDesc().getPayload()));
+        assertEquals(2, qDelayedMsg.getMsgDesc().getDeliveryCount());
+        assertTrue(qRepos.getDueDelayedBuckets(cq.getName(), System.currentTimeMillis() + 60000, 10).isEmpty());
+    }
+
+    @Test
+    public void testRollbackWithDelayKeepsPriority() throws Exception {
+        CassQueueImpl cq = cqFactory.createInstance("test_" + System.currentTimeMillis(), 20000, 10, 30000, false);
+        cq.setNumPriorities(2);
+        cq.setRollbackDelay(200);
+        cq.setDelayBucketSize(100);
+
+        CassQMsg qPushedMsg = cq.createPusher().push("delay-me", 1);
+        assertNull("delayed msg should not be returned", cq.rollback(cq.createPopper().pop()));
+
+        CassQMsg qDelayedMsg = null;
+        long end = System.currentTimeMillis() + 10000;
+        while (null == qDelayedMsg && System.currentTimeMillis() < end) {
+            Thread.sleep(100);
+            cq.forcePipeReaperWakeUp();
+            qDelayedMsg = cq.createPopper().pop();
+        }
+        assertNotNull("msg should be promoted after delay", qDelayedMsg);
+        assertEquals(qPushedMsg.getMsgId(), qDelayedMsg.getMsgId());
+        assertEquals(1, qDelayedMsg.getPipeDescriptor().getPriority());
+    }
+
+    @Test
+    public void testPopHigherPriorityFirst() throws Exception {
+        CassQueueImpl cq = cqFactory.createInstance("test_" + System.currentTimeMillis(), 20000, 10, 30000, false);
+        cq.setNumPriorities(2);
+        cq.setPriorityStarvationRatio(0);
+        PusherImpl pusher = cq.createPusher();
+        int numMsgs = 3;
+        for (int i = 0; i < numMsgs; i++) {
+            pusher.push("low-" + i, 0);
+        }
+        for (int i = 0; i < numMsgs; i++) {
+            pusher.push("high-" + i, 1);
+        }
+        assertEquals(1, qRepos.getPipeDescriptor(pusher.getPipeDesc(1).getPipeId()).getPriority());
+        assertEquals(0, qRepos.getPipeDescriptor(pusher.getPipeDesc(0).getPipeId()).getPriority());
+
+        try {
+            pusher.push("bad", 2);
+            fail("should not allow priority outside of the queue's range");
+        }
+        catch (IllegalArgumentException e) {
+            // all good, expected
+        }
+
+        // close the pipes so the popper moves on once one is empty
+        pusher.shutdownAndWait();
+
+        PopperImpl popper = cq.createPopper();
+        for (int i = 0; i < numMsgs; i++) {
+            assertEquals("high-" + i, new String(popper.pop().getMsgDesc().getPayload()));
+        }
+        for (int i = 0; i < numMsgs; i++) {
+            assertEquals("low-" + i, new String(popper.pop().getMsgDesc().getPayload()));
+        }
+        assertNull(popper.pop());
+    }
+
     @Test
     public void testPipeDescriptorExpires() throws Exception {
         CassQueueImpl cq = cqFactory.createInstance("test_" + System.currentTimeMillis(), 20000, 10, 30000, false);
@@ -4,14 +4,19 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -137,6 +142,256 @@ public class PusherImplTest extends CassQueueTestBase {
         }
     }
 
+    @Test
+    public void testPushBatchSplitsAcrossPipes() throws Exception {
+        int maxPushesPerPipe = 10;
+        cq = cqFactory.createInstance("test_" + System.currentTimeMillis(), 20000, maxPushesPerPipe, 30000, false);
+        int numMsgs = 25;
+        List<byte[]> dataList = new ArrayList<byte[]>(numMsgs);
+        for (int i = 0; i < numMsgs; i++) {
+            dataList.add(("batch-" + i).getBytes());
+        }
+
+        PusherImpl pusher = cq.createPusher();
+        List<CassQMsg> pushList = pusher.pushBatch(dataList);
+
+        assertEquals(numMsgs, pushList.size());
+        assertEquals(numMsgs, pusher.getPushCount());
+
+        Set<UUID> pipeSet = new HashSet<UUID>();
+        UUID lastPipeId = null;
+        for (int i = 0; i < numMsgs; i++) {
+            CassQMsg qMsg = pushList.get(i);
+            assertEquals("batch-" + i, new String(qMsg.getMsgDesc().getPayload()));
+            CassQMsg qMsgNew = qRepos.getMsg(cq.getName(), qMsg.getPipeDescriptor(), qMsg.getMsgId());
+            assertNotNull("should have written msg " + i, qMsgNew);
+            assertEquals(qMsg.getMsgDesc().getPayloadAsByteBuffer(), qMsgNew.getMsgDesc().getPayloadAsByteBuffer());
+            lastPipeId = qMsg.getPipeDescriptor().getPipeId();
+            pipeSet.add(lastPipeId);
+        }
+
+        assertEquals("batch should have been split across pipes", 3, pipeSet.size());
+        for (UUID pipeId : pipeSet) {
+            PipeDescriptorImpl pipeDesc = qRepos.getPipeDescriptor(pipeId);
+            if (!pipeDesc.getPipeId().equals(lastPipeId)) {
+                assertEquals(maxPushesPerPipe, pipeDesc.getPushCount());
+                assertFalse("pipe should not be active", pipeDesc.isPushActive());
+            }
+            else {
+                assertEquals(numMsgs % maxPushesPerPipe, pipeDesc.getPushCount());
+                assertTrue("pipe should still be active", pipeDesc.isPushActive());
+            }
+        }
+    }
+
+    @Test
+    public void testPushAsyncGroupsConcurrentPushes() throws Exception {
+        cq = cqFactory.createInstance("test_" + System.currentTimeMillis(), 20000, 1000, 30000, false);
+        cq.setAsyncPushMaxBatchWait(50);
+        final PusherImpl pusher = cq.createPusher();
+        final int numThreads = 4;
+        final int numMsgsPerThread = 25;
+        final List<Future<CassQMsg>> futureList = Collections.synchronizedList(new ArrayList<Future<CassQMsg>>());
+
+        long startRoundTrips = qRepos.getPushRoundTripCount();
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            final int threadNum = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < numMsgsPerThread; i++) {
+                        futureList.add(pusher.pushAsync(("async-" + threadNum + "-" + i).getBytes()));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(numThreads * numMsgsPerThread, futureList.size());
+        Set<UUID> msgIdSet = new HashSet<UUID>();
+        for (Future<CassQMsg> future : futureList) {
+            CassQMsg qMsg = future.get(10, TimeUnit.SECONDS);
+            assertNotNull(qRepos.getMsg(cq.getName(), qMsg.getPipeDescriptor(), qMsg.getMsgId()));
+            msgIdSet.add(qMsg.getMsgId());
+        }
+        assertEquals(numThreads * numMsgsPerThread, msgIdSet.size());
+        assertTrue("concurrent async pushes should have been grouped",
+                qRepos.getPushRoundTripCount() - startRoundTrips < numThreads * numMsgsPerThread);
+    }
+
+    @Test
+    public void testPushDelayed() throws Exception {
+        cq = cqFactory.createInstance("test_" + System.currentTimeMillis(), 20000, 10, 30000, false);
+        cq.setDelayBucketSize(100);
+        PusherImpl pusher = cq.createPusher();
+
+        long deliverAt = System.currentTimeMillis() + 500;
+        List<UUID> msgIdList = new ArrayList<UUID>();
+        for (int i = 0; i < 5; i++) {
+            CassQMsg qMsg = pusher.pushDelayed("delayed-" + i, deliverAt);
+            assertNull("delayed msg should not be in a pipe", qMsg.getPipeDescriptor());
+            msgIdList.add(qMsg.getMsgId());
+        }
+        CassQMsg qNowMsg = pusher.pushDelayed("now", System.currentTimeMillis() - 1);
+        assertNotNull("past delivery time should push normally", qNowMsg.getPipeDescriptor());
+
+        PopperImpl popper = cq.createPopper();
+        assertEquals(qNowMsg.getMsgId(), popper.pop().getMsgId());
+        assertNull("delayed msgs should be held back", popper.pop());
+
+        cq.forcePipeReaperWakeUp();
+        List<CassQMsg> poppedList = new ArrayList<CassQMsg>();
+        long end = System.currentTimeMillis() + 10000;
+        while (poppedList.size() < msgIdList.size() && System.currentTimeMillis() < end) {
+            Thread.sleep(100);
+            cq.forcePipeReaperWakeUp();
+            poppedList.addAll(cq.createPopper().pop(10));
+        }
+        assertTrue("msgs popped too early", System.currentTimeMillis() >= deliverAt);
+        assertEquals(msgIdList.size(), poppedList.size());
+        for (int i = 0; i < msgIdList.size(); i++) {
+            assertEquals(msgIdList.get(i), poppedList.get(i).getMsgId());
+            assertEquals("delayed-" + i, new String(poppedList.get(i).getMsgDesc().getPayload()));
+        }
+    }
+
+    @Test
+    public void testPushSpreadsAcrossPipes() throws Exception {
+        cq = cqFactory.createInstance("test_" + System.currentTimeMillis(), 20000, 10, 30000, false);
+        cq.setPushPipesPerPusher(3);
+        PusherImpl pusher = cq.createPusher();
+        int numMsgs = 9;
+        Set<UUID> pipeSet = new HashSet<UUID>();
+        for (int i = 0; i < numMsgs; i++) {
+            pipeSet.add(pusher.push("push-" + i).getPipeDescriptor().getPipeId());
+        }
+        assertEquals("msgs should be spread round robin across pipes", 3, pipeSet.size());
+        assertEquals(3, pusher.getPipeDescs(0).size());
+
+        // each popper owns a different pipe of the same pusher
+        Set<UUID> poppedPipeSet = new HashSet<UUID>();
+        for (int i = 0; i < 3; i++) {
+            poppedPipeSet.add(cq.createPopper().pop().getPipeDescriptor().getPipeId());
+        }
+        assertEquals(pipeSet, poppedPipeSet);
+
+        pusher.shutdownAndWait();
+        for (UUID pipeId : pipeSet) {
+            PipeDescriptorImpl pipeDesc = qRepos.getPipeDescriptor(pipeId);
+            assertFalse(pipeDesc.isPushActive());
+            assertEquals(numMsgs / 3, pipeDesc.getPushCount());
+        }
+    }
+
+    @Test
+    public void testPipeSwitchWrittenWithFirstMsg() throws Exception {
+        int maxPushesPerPipe = 5;
+        cq = cqFactory.createInstance("test_" + System.currentTimeMillis(), 20000, maxPushesPerPipe, 30000, false);
+        PusherImpl pusher = cq.createPusher();
+        for (int i = 0; i < maxPushesPerPipe; i++) {
+            pusher.push("push-" + i);
+        }
+        PipeDescriptorImpl fullPipeDesc = pusher.getPipeDesc();
+        assertTrue("full pipe is sealed by the next push", qRepos.getPipeDescriptor(fullPipeDesc.getPipeId())
+                .isPushActive());
+
+        long roundTrips = qRepos.getPushRoundTripCount();
+        CassQMsg qMsg = pusher.push("push-" + maxPushesPerPipe);
+        assertEquals(roundTrips + 1, qRepos.getPushRoundTripCount());
+
+        PipeDescriptorImpl newPipeDesc = qRepos.getPipeDescriptor(qMsg.getPipeDescriptor().getPipeId());
+        assertNotNull("new pipe should be created by the push", newPipeDesc);
+        assertEquals(1, newPipeDesc.getPushCount());
+        assertTrue(newPipeDesc.isPushActive());
+        assertFalse("full pipe should be sealed by the push", qRepos.getPipeDescriptor(fullPipeDesc.getPipeId())
+                .isPushActive());
+        assertEquals(2, qRepos.getAllPipes(cq.getName(), 10).size());
+        assertNotNull(qRepos.getMsg(cq.getName(), newPipeDesc, qMsg.getMsgId()));
+    }
+
+    @Test
+    public void testPushCountSavedEveryFewMsgs() throws Exception {
+        cq = cqFactory.createInstance("test_" + System.currentTimeMillis(), 20000, 10, 30000, false);
+        cq.setPushCountSaveMsgs(4);
+        cq.setPushCountSaveInterval(60000);
+        PusherImpl pusher = cq.createPusher();
+
+        // created with 1, saved again at 5
+        for (int i = 0; i < 4; i++) {
+            pusher.push("push-" + i);
+        }
+        UUID pipeId = pusher.getPipeDesc().getPipeId();
+        assertEquals(1, qRepos.getPipeDescriptor(pipeId).getPushCount());
+        for (int i = 4; i < 7; i++) {
+            pusher.push("push-" + i);
+        }
+        assertEquals(5, qRepos.getPipeDescriptor(pipeId).getPushCount());
+
+        // sealing saves the final count
+        pusher.shutdownAndWait();
+        PipeDescriptorImpl pipeDesc = qRepos.getPipeDescriptor(pipeId);
+        assertFalse(pipeDesc.isPushActive());
+        assertEquals(7, pipeDesc.getPushCount());
+    }
+
+    @Test
+    public void testPushCountSavedWhenPipeExpires() throws Exception {
+        cq = cqFactory.createInstance("test_" + System.currentTimeMillis(), 500, 10, 30000, false);
+        cq.setPushCountSaveMsgs(4);
+        cq.setPushCountSaveInterval(60000);
+        PusherImpl pusher = cq.createPusher();
+
+        for (int i = 0; i < 3; i++) {
+            pusher.push("push-" + i);
+        }
+        UUID pipeId = pusher.getPipeDesc().getPipeId();
+        assertEquals(1, qRepos.getPipeDescriptor(pipeId).getPushCount());
+
+        // switching away from the expired pipe saves its final count
+        Thread.sleep(600);
+        pusher.push("push-3");
+        assertFalse(pipeId.equals(pusher.getPipeDesc().getPipeId()));
+        assertEquals(3, qRepos.getPipeDescriptor(pipeId).getPushCount());
+        pusher.shutdownAndWait();
+    }
+
+    @Test
+    public void testPushByteBuffer() throws Exception {
+        cq = cqFactory.createInstance("test_" + System.currentTimeMillis(), 20000, 10, 30000, false);
+        cq.setMaxInlinePayloadSize(0);
+        PusherImpl pusher = cq.createPusher();
+
+        // a slice in the middle of a larger array, and a direct buffer
+        byte[] data = new byte[64 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        ByteBuffer heapBuf = ByteBuffer.wrap(data, 100, 50000);
+        ByteBuffer directBuf = ByteBuffer.allocateDirect(1000);
+        directBuf.put(data, 0, 1000).flip();
+
+        CassQMsg qMsgHeap = pusher.push(heapBuf);
+        CassQMsg qMsgDirect = pusher.push(directBuf);
+        assertEquals("position should not change", 100, heapBuf.position());
+        assertEquals("position should not change", 0, directBuf.position());
+        assertEquals(heapBuf, qMsgHeap.payloadBuffer());
+
+        PopperImpl popper = cq.createPopper();
+        CassQMsg qMsgPop = popper.pop();
+        assertEquals(qMsgHeap.getMsgId(), qMsgPop.getMsgId());
+        assertEquals(heapBuf, qMsgPop.payloadBuffer());
+        assertEquals(50000, qMsgPop.getMsgDesc().getPayload().length);
+
+        qMsgPop = popper.pop();
+        assertEquals(qMsgDirect.getMsgId(), qMsgPop.getMsgId());
+        assertEquals(directBuf, qMsgPop.payloadBuffer());
+        assertTrue(qMsgPop.payloadBuffer().isReadOnly());
+    }
+
     @Test
     public void testShutdownInProgress() throws Exception {
         cq = cqFactory.createInstance("test_" + System.currentTimeMillis(), 20000, 10, 30000, false);
@@ -1,6 +1,7 @@
 package com.btoddb.cassandra.queue.repository;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
@@ -8,6 +9,7 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
@@ -121,6 +123,91 @@ public class QueueRepositoryImplTest extends CassQueueTestBase {
         assertEquals("inserted one value, so pipe descriptor msg count should reflect this", 1, pdNew.getPushCount());
     }
 
+    @Test
+    public void testInsertIsOneRoundTrip() throws Exception {
+        String qName = "test_" + System.currentTimeMillis();
+        qRepos.createQueueIfDoesntExist(qName, 20000, 23, 30000);
+        PipeDescriptorImpl pipeDesc = qRepos.createPipeDescriptor(qName, UuidGenerator.generateTimeUuid());
+
+        long startRoundTrips = qRepos.getPushRoundTripCount();
+        long startMsgs = qRepos.getPushMsgCount();
+        int numMsgs = 5;
+        for (int i = 0; i < numMsgs; i++) {
+            pipeDesc.incPushCount();
+            qRepos.insertMsg(pipeDesc, UuidGenerator.generateTimeUuid(), ("data-" + i).getBytes());
+        }
+
+        assertEquals(numMsgs, qRepos.getPushMsgCount() - startMsgs);
+        assertEquals("each push should be exactly one round trip", numMsgs, qRepos.getPushRoundTripCount()
+                - startRoundTrips);
+
+        CassQMsg qMsg = qRepos.getOldestMsgFromWaitingPipe(pipeDesc);
+        assertEquals("data-0", new String(qMsg.getMsgDesc().getPayload()));
+        assertEquals(numMsgs, qRepos.getPipeDescriptor(pipeDesc.getPipeId()).getPushCount());
+    }
+
+    @Test
+    public void testEmptyPayloadNotInlinedWhenDisabled() throws Exception {
+        String qName = "test_" + System.currentTimeMillis();
+        qRepos.createQueueIfDoesntExist(qName, 20000, 23, 30000, 0);
+
+        PipeDescriptorImpl pipeDesc = qRepos.createPipeDescriptor(qName, UuidGenerator.generateTimeUuid());
+        pipeDesc.setPushCount(1);
+        CassQMsg qMsg = qRepos.insertMsg(pipeDesc, UuidGenerator.generateTimeUuid(), new byte[0], 0);
+        assertFalse(qMsg.isPayloadInline());
+        CassQMsg qReadMsg = qRepos.getWaitingMessagesFromPipe(pipeDesc, 10).get(0);
+        assertFalse(qReadMsg.isPayloadInline());
+        assertEquals(0, qReadMsg.getMsgDesc().getPayloadSize());
+
+        CassQMsg qDelayedMsg =
+                qRepos.insertDelayedMsg(qName, UuidGenerator.generateTimeUuid(), new byte[0],
+                        System.currentTimeMillis(), 0);
+        assertFalse(qDelayedMsg.isPayloadInline());
+    }
+
+    @Test
+    public void testInlinePayloadCarriedToPending() throws Exception {
+        String qName = "test_" + System.currentTimeMillis();
+        int maxInlinePayloadSize = 16;
+        QueueDescriptor qDesc = qRepos.createQueueIfDoesntExist(qName, 20000, 23, 30000, maxInlinePayloadSize);
+        assertEquals(maxInlinePayloadSize, qRepos.getQueueDescriptor(qName).getMaxInlinePayloadSize());
+
+        PipeDescriptorImpl pipeDesc = qRepos.createPipeDescriptor(qName, UuidGenerator.generateTimeUuid());
+        pipeDesc.setPushCount(2);
+        CassQMsg small =
+                qRepos.insertMsg(pipeDesc, UuidGenerator.generateTimeUuid(), "small".getBytes(),
+                        qDesc.getMaxInlinePayloadSize());
+        CassQMsg large =
+                qRepos.insertMsg(pipeDesc, UuidGenerator.generateTimeUuid(),
+                        "this payload is too large to inline".getBytes(), qDesc.getMaxInlinePayloadSize());
+        assertTrue(small.isPayloadInline());
+        assertFalse(large.isPayloadInline());
+
+        List<CassQMsg> msgList = qRepos.getWaitingMessagesFromPipe(pipeDesc, 10);
+        assertEquals(2, msgList.size());
+        assertTrue(msgList.get(0).isPayloadInline());
+        assertEquals("small", new String(msgList.get(0).getMsgDesc().getPayload()));
+        assertEquals(small.getMsgDesc().getCreateTimestamp(), msgList.get(0).getMsgDesc().getCreateTimestamp());
+        assertNull(msgList.get(0).getMsgDesc().getPopTimestamp());
+        assertFalse(msgList.get(1).isPayloadInline());
+        assertEquals("this payload is too large to inline", new String(msgList.get(1).getMsgDesc().getPayload()));
+
+        for (CassQMsg qMsg : msgList) {
+            qRepos.moveMsgFromWaitingToPendingPipe(qMsg);
+        }
+
+        List<CassQMsg> pendingList = qRepos.getPendingMessagesFromPipe(pipeDesc, 10);
+        assertEquals(2, pendingList.size());
+        for (int i = 0; i < pendingList.size(); i++) {
+            CassQMsg qMsg = pendingList.get(i);
+            assertEquals(msgList.get(i).getMsgId(), qMsg.getMsgId());
+            assertEquals(msgList.get(i).isPayloadInline(), qMsg.isPayloadInline());
+            assertEquals(msgList.get(i).getMsgDesc().getPopTimestamp(), qMsg.getMsgDesc().getPopTimestamp());
+            assertEquals(msgList.get(i).getMsgDesc().getPayloadAsByteBuffer(), qMsg.getMsgDesc()
+                    .getPayloadAsByteBuffer());
+        }
+    }
+
     @Test
     public void testCreateUpdateStats() throws Exception {
         String qName = "test_" + System.currentTimeMillis();
@@ -209,6 +296,41 @@ public class QueueRepositoryImplTest extends CassQueueTestBase {
         assertEquals("should have retrieve exactly " + msgCount + " msgs", msgCount, i);
     }
 
+    @Test
+    public void testWaitingCursor() throws Exception {
+        String qName = "test_" + System.currentTimeMillis();
+        qRepos.createQueueIfDoesntExist(qName, 20000, 23, 30000);
+        PipeDescriptorImpl pipeDesc = qRepos.createPipeDescriptor(qName, UuidGenerator.generateTimeUuid());
+
+        UUID lateMsgId = UuidGenerator.generateTimeUuid();
+        List<UUID> msgIdList = new ArrayList<UUID>();
+        List<byte[]> msgDataList = new ArrayList<byte[]>();
+        for (int i = 0; i < 4; i++) {
+            msgIdList.add(UuidGenerator.generateTimeUuid());
+            msgDataList.add(("data-" + i).getBytes());
+        }
+        pipeDesc.setPushCount(5);
+        qRepos.insertMsgs(pipeDesc, msgIdList, msgDataList);
+
+        List<CassQMsg> msgList = qRepos.getWaitingMessagesFromPipe(pipeDesc, 2);
+        qRepos.moveMsgsFromWaitingToPendingPipe(pipeDesc, msgList, pipeDesc.addPopCount(2), null, 0);
+        assertEquals(msgIdList.get(1), pipeDesc.getWaitingCursor());
+
+        msgList = qRepos.getWaitingMessagesFromPipe(pipeDesc, 2);
+        assertEquals(2, msgList.size());
+        assertEquals(msgIdList.get(2), msgList.get(0).getMsgId());
+        assertEquals(msgIdList.get(3), msgList.get(1).getMsgId());
+        qRepos.moveMsgsFromWaitingToPendingPipe(pipeDesc, msgList, pipeDesc.addPopCount(2), null, 0);
+
+        // msg written behind the cursor is still found before the pipe is
+        // reported empty
+        qRepos.insertMsg(pipeDesc, lateMsgId, "late".getBytes());
+        msgList = qRepos.getWaitingMessagesFromPipe(pipeDesc, 2);
+        assertEquals(1, msgList.size());
+        assertEquals(lateMsgId, msgList.get(0).getMsgId());
+        assertNull(pipeDesc.getWaitingCursor());
+    }
+
     @Test
     public void testGetAllNonEmptyPipesInOrder() throws Exception {
         String qName = "test_" + System.currentTimeMillis();
@@ -266,6 +388,109 @@ public class QueueRepositoryImplTest extends CassQueueTestBase {
         assertEquals("all pipes are finished and empty, should not have returned any", 0, pipeListNew.size());
     }
 
+    @Test
+    public void testGetPipeDescriptorsMultiget() throws Exception {
+        String qName = "test_" + System.currentTimeMillis();
+        qRepos.createQueueIfDoesntExist(qName, 20000, 10, 30000);
+
+        List<UUID> pipeIdList = new ArrayList<UUID>();
+        for (int i = 0; i < 5; i++) {
+            PipeDescriptorImpl pipeDesc = qRepos.createPipeDescriptor(qName, UuidGenerator.generateTimeUuid());
+            if (0 == i % 2) {
+                qRepos.updatePipePushStatus(pipeDesc, PipeStatus.NOT_ACTIVE);
+            }
+            pipeIdList.add(pipeDesc.getPipeId());
+        }
+        UUID missingPipeId = UuidGenerator.generateTimeUuid();
+        pipeIdList.add(missingPipeId);
+
+        Map<UUID, PipeDescriptorImpl> pipeDescMap = qRepos.getPipeDescriptors(pipeIdList);
+        assertEquals(5, pipeDescMap.size());
+        assertNull(pipeDescMap.get(missingPipeId));
+        assertEquals(PipeStatus.NOT_ACTIVE, pipeDescMap.get(pipeIdList.get(0)).getPushStatus());
+        assertEquals(PipeStatus.ACTIVE, pipeDescMap.get(pipeIdList.get(1)).getPushStatus());
+
+        List<PipeDescriptorImpl> pushNotActiveList = qRepos.getPushNotActivePipes(qName, 10);
+        assertEquals(3, pushNotActiveList.size());
+        assertEquals(pipeIdList.get(0), pushNotActiveList.get(0).getPipeId());
+        assertEquals(pipeIdList.get(2), pushNotActiveList.get(1).getPipeId());
+        assertEquals(pipeIdList.get(4), pushNotActiveList.get(2).getPipeId());
+    }
+
+    @Test
+    public void testPipeStatusIndexRows() throws Exception {
+        String qName = "test_" + System.currentTimeMillis();
+        qRepos.createQueueIfDoesntExist(qName, 20000, 10, 30000);
+
+        List<PipeDescriptorImpl> pipeDescList = new ArrayList<PipeDescriptorImpl>();
+        for (int i = 0; i < 4; i++) {
+            pipeDescList.add(qRepos.createPipeDescriptor(qName, UuidGenerator.generateTimeUuid()));
+        }
+        assertEquals(4, qRepos.getOldestPopActivePipes(qName, 10).size());
+
+        // pipe 0 completed, pipe 1 pop finished, pipe 2 push finished
+        qRepos.updatePipePushStatus(pipeDescList.get(0), PipeStatus.COMPLETED);
+        qRepos.updatePipePopStatus(pipeDescList.get(0), PipeStatus.COMPLETED);
+        qRepos.updatePipePushStatus(pipeDescList.get(1), PipeStatus.COMPLETED);
+        qRepos.updatePipePopStatus(pipeDescList.get(1), PipeStatus.NOT_ACTIVE);
+        qRepos.updatePipePushStatus(pipeDescList.get(2), PipeStatus.NOT_ACTIVE);
+
+        List<PipeDescriptorImpl> popActiveList = qRepos.getOldestPopActivePipes(qName, 10);
+        assertEquals(2, popActiveList.size());
+        assertEquals(pipeDescList.get(2).getPipeId(), popActiveList.get(0).getPipeId());
+        assertEquals(pipeDescList.get(3).getPipeId(), popActiveList.get(1).getPipeId());
+
+        assertEquals(pipeDescList.get(0).getPipeId(), qRepos.getCompletedPipes(qName, 10).get(0).getPipeId());
+        assertEquals(pipeDescList.get(1).getPipeId(), qRepos.getPopFinishedPipes(qName, 10).get(0).getPipeId());
+        assertEquals(pipeDescList.get(2).getPipeId(), qRepos.getPushNotActivePipes(qName, 10).get(0).getPipeId());
+
+        // removing the pipe removes it from the index rows
+        qRepos.removePipeDescriptor(pipeDescList.get(0));
+        assertTrue(qRepos.getCompletedPipes(qName, 10).isEmpty());
+
+        // rebuilding does not resurrect finished pipes
+        qRepos.rebuildPipeStatusIndexes(qName);
+        assertEquals(2, qRepos.getOldestPopActivePipes(qName, 10).size());
+        assertEquals(3, qRepos.getAllPipes(qName, 10).size());
+    }
+
+    @Test
+    public void testRemoveDelayedBucketOnlyWhenEmpty() throws Exception {
+        String qName = "test_" + System.currentTimeMillis();
+        qRepos.createQueueIfDoesntExist(qName, 20000, 10, 30000);
+        PipeDescriptorImpl pd = qRepos.createPipeDescriptor(qName, UuidGenerator.generateTimeUuid());
+        long dueTime = System.currentTimeMillis();
+
+        qRepos.insertDelayedMsg(qName, UuidGenerator.generateTimeUuid(), "delayed-0".getBytes(), dueTime, 0);
+        UUID bucketId = qRepos.getDueDelayedBuckets(qName, dueTime, 10).get(0);
+        assertFalse(qRepos.removeDelayedBucketIfEmpty(qName, bucketId));
+
+        List<CassQMsg> msgList = qRepos.getDelayedMsgs(qName, bucketId, 10);
+        pd.incPushCount();
+        qRepos.moveMsgsFromDelayedToWaitingPipe(bucketId, msgList, pd, true);
+        assertTrue(qRepos.removeDelayedBucketIfEmpty(qName, bucketId));
+        assertTrue(qRepos.getDueDelayedBuckets(qName, dueTime, 10).isEmpty());
+
+        // a late msg for the same bucket is not shadowed and brings back the
+        // index entry
+        qRepos.insertDelayedMsg(qName, UuidGenerator.generateTimeUuid(), "delayed-1".getBytes(), dueTime, 0);
+        assertEquals(bucketId, qRepos.getDueDelayedBuckets(qName, dueTime, 10).get(0));
+        assertEquals("delayed-1", new String(qRepos.getDelayedMsgs(qName, bucketId, 10).get(0).getMsgDesc()
+                .getPayload()));
+    }
+
+    @Test
+    public void testNumPrioritiesSaved() throws Exception {
+        String qName = "test_" + System.currentTimeMillis();
+        QueueDescriptor qDesc = qRepos.createQueueIfDoesntExist(qName, 20000, 23, 30000, 0, 3);
+        assertEquals(3, qDesc.getNumPriorities());
+        assertEquals(3, qRepos.getQueueDescriptor(qName).getNumPriorities());
+
+        // existing queue keeps its value
+        qDesc = qRepos.createQueueIfDoesntExist(qName, 20000, 23, 30000, 0, 5);
+        assertEquals(3, qDesc.getNumPriorities());
+    }
+
     @Test
     public void testSavePopperOwner() {
         String qName = "test_" + System.currentTimeMillis();
@@ -0,0 +1,57 @@
+package com.btoddb.cassandra.queue.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.Test;
+
+public class UuidGeneratorTest {
+
+    @Test
+    public void testTimeUuidIsType1AndIncreasing() {
+        UUID last = UuidGenerator.generateTimeUuid();
+        for (int i = 0; i < 100000; i++) {
+            UUID uuid = UuidGenerator.generateTimeUuid();
+            assertEquals(1, uuid.version());
+            assertEquals(2, uuid.variant());
+            assertTrue("timestamps must strictly increase", uuid.timestamp() > last.timestamp());
+            last = uuid;
+        }
+
+        long uuidMillis = (last.timestamp() - 0x01B21DD213814000L) / 10000;
+        assertTrue("should be close to wall clock", Math.abs(System.currentTimeMillis() - uuidMillis) < 10000);
+    }
+
+    @Test
+    public void testUniqueAcrossThreads() throws Exception {
+        final int numThreads = 8;
+        final int numPerThread = 20000;
+        final Set<UUID> uuidSet = Collections.synchronizedSet(new HashSet<UUID>());
+        final Set<Long> microsSet = Collections.synchronizedSet(new HashSet<Long>());
+
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < numPerThread; i++) {
+                        uuidSet.add(UuidGenerator.generateTimeUuid());
+                        microsSet.add(UuidGenerator.generateMicros());
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(numThreads * numPerThread, uuidSet.size());
+        assertEquals(numThreads * numPerThread, microsSet.size());
+    }
+}